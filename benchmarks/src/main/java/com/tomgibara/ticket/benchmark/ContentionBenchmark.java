@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tomgibara.ticket.DefaultTicketPolicy;
+import com.tomgibara.ticket.Ticket;
+import com.tomgibara.ticket.Ticket.Granularity;
+import com.tomgibara.ticket.TicketFactory;
+import com.tomgibara.ticket.TicketMachine;
+
+/**
+ * Measures the cost of issuing minimal tickets from a single machine that is
+ * shared by all available threads, and of obtaining that machine from its
+ * factory. The tickets carry no data and no hash so that contention on the
+ * machine's sequence, and on the factory's machine cache when it is enabled,
+ * dominates.
+ *
+ * @author Tom Gibara
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ContentionBenchmark {
+
+	@Param({ "SECOND", "MILLISECOND" })
+	Granularity granularity;
+
+	@Param({ "0", "16" })
+	int machineCacheSize;
+
+	private TicketFactory<Void, Object> factory;
+	private TicketMachine<Void, Object> machine;
+
+	@Setup
+	public void setup() {
+		factory = Fixtures.factory(granularity, 0, Layout.NONE, 0);
+		factory.setPolicy(new CachePolicy(machineCacheSize));
+		machine = factory.machine();
+	}
+
+	@Benchmark
+	public TicketMachine<Void, Object> machine() {
+		return factory.machine();
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> ticket() {
+		return machine.ticket();
+	}
+
+	@SuppressWarnings("serial")
+	private static final class CachePolicy extends DefaultTicketPolicy {
+
+		private final int machineCacheSize;
+
+		CachePolicy(int machineCacheSize) {
+			this.machineCacheSize = machineCacheSize;
+		}
+
+		@Override
+		public int getMachineCacheSize() {
+			return machineCacheSize;
+		}
+
+	}
+
+}
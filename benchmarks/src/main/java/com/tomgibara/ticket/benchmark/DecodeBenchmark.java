@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tomgibara.ticket.Ticket;
+import com.tomgibara.ticket.Ticket.Granularity;
+import com.tomgibara.ticket.TicketFactory;
+import com.tomgibara.ticket.TicketMachine;
+import com.tomgibara.ticket.TicketResult;
+
+/**
+ * Measures the cost of decoding previously issued tickets. A pool of distinct
+ * tickets is decoded in rotation so that no single input is favoured.
+ *
+ * @author Tom Gibara
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	private static final int POOL_SIZE = 1024;
+
+	@Param({ "SECOND", "MILLISECOND" })
+	Granularity granularity;
+
+	@Param({ "0", "32", "64" })
+	int hashLength;
+
+	@Param({ "NONE", "OPEN", "SECRET" })
+	Layout layout;
+
+	@Param({ "0", "5" })
+	int groupLength;
+
+	private TicketFactory<Void, Object> factory;
+	private String[] tickets;
+	private ByteBuffer[] buffers;
+	private int index;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		factory = Fixtures.factory(granularity, hashLength, layout, groupLength);
+		TicketMachine<Void, Object> machine = factory.machine();
+		tickets = new String[POOL_SIZE];
+		for (int i = 0; i < POOL_SIZE; i++) {
+			tickets[i] = machine.ticketData(layout.data(1000L * i, i)).toString();
+		}
+		buffers = new ByteBuffer[POOL_SIZE];
+		for (int i = 0; i < POOL_SIZE; i++) {
+			byte[] bytes = tickets[i].getBytes(StandardCharsets.US_ASCII);
+			buffers[i] = ByteBuffer.allocateDirect(bytes.length);
+			buffers[i].put(bytes);
+		}
+		pool = new ForkJoinPool();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> decodeTicket() {
+		String str = tickets[index];
+		index = (index + 1) & (POOL_SIZE - 1);
+		return factory.decodeTicket(str);
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> decodeTicketBuffer() {
+		ByteBuffer buffer = buffers[index];
+		index = (index + 1) & (POOL_SIZE - 1);
+		return factory.decodeTicket(buffer, 0, buffer.capacity());
+	}
+
+	@Benchmark
+	public boolean isValid() {
+		String str = tickets[index];
+		index = (index + 1) & (POOL_SIZE - 1);
+		return factory.isValid(str);
+	}
+
+	@Benchmark
+	public long decodeTicketLazily() {
+		String str = tickets[index];
+		index = (index + 1) & (POOL_SIZE - 1);
+		return factory.decodeTicketLazily(str).getTimestamp();
+	}
+
+	@Benchmark
+	public long decodeTicketData() {
+		String str = tickets[index];
+		index = (index + 1) & (POOL_SIZE - 1);
+		return layout.read(factory.decodeTicket(str).getData());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POOL_SIZE)
+	public List<TicketResult<Void, Object>> decodeTickets() {
+		return factory.decodeTickets(tickets, pool);
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+import com.tomgibara.ticket.Ticket.Granularity;
+import com.tomgibara.ticket.TicketConfig;
+import com.tomgibara.ticket.TicketFactory;
+import com.tomgibara.ticket.TicketFormat;
+import com.tomgibara.ticket.TicketSpec;
+
+final class Fixtures {
+
+	private static final byte[] SECRET = "Benchmark Secret".getBytes(StandardCharsets.US_ASCII);
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static TicketFactory<Void, Object> factory(Granularity granularity, int hashLength, Layout layout, int groupLength) {
+		TicketSpec spec = TicketSpec.newDefaultBuilder()
+				.setGranularity(granularity)
+				.setHashLength(hashLength)
+				.build();
+		TicketConfig config = TicketConfig.getDefault()
+				.withDataType(layout.dataType)
+				.withSpecifications(spec);
+		TicketFactory<Void, Object> factory = config.newFactory(SECRET);
+		factory.setFormat(new TicketFormat(false, groupLength, '-', groupLength > 0));
+		return factory;
+	}
+
+	private Fixtures() { }
+
+}
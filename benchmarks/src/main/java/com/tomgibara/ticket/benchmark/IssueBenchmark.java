@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tomgibara.ticket.Ticket;
+import com.tomgibara.ticket.Ticket.Granularity;
+import com.tomgibara.ticket.TicketClocks;
+import com.tomgibara.ticket.TicketFactory;
+import com.tomgibara.ticket.TicketMachine;
+
+/**
+ * Measures the cost of issuing tickets from a single machine.
+ *
+ * @author Tom Gibara
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({ "SECOND", "MILLISECOND" })
+	Granularity granularity;
+
+	@Param({ "0", "32", "64" })
+	int hashLength;
+
+	@Param({ "NONE", "OPEN", "SECRET" })
+	Layout layout;
+
+	@Param({ "0", "5" })
+	int groupLength;
+
+	// coarse clocks are not available at millisecond granularity
+	@Param({ "SYSTEM", "COARSE" })
+	String clock;
+
+	private TicketMachine<Void, Object> machine;
+	private Object data;
+	private Object[] values;
+
+	@Setup
+	public void setup() {
+		TicketFactory<Void, Object> factory = Fixtures.factory(granularity, hashLength, layout, groupLength);
+		if (clock.equals("COARSE") && granularity != Granularity.MILLISECOND) factory.setClock(TicketClocks.coarse(granularity));
+		machine = factory.machine();
+		data = layout.data(2394872349L, 44);
+		values = layout.values(2394872349L, 44);
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> ticket() {
+		return machine.ticket();
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> ticketData() {
+		return machine.ticketData(data);
+	}
+
+	@Benchmark
+	public Ticket<Void, Object> ticketDataValues() {
+		return machine.ticketDataValues(values);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<Ticket<Void, Object>> tickets() {
+		return machine.tickets(BATCH_SIZE);
+	}
+
+}
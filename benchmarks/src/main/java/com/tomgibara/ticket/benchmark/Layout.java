@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket.benchmark;
+
+import com.tomgibara.ticket.TicketField;
+
+/**
+ * The ticket data layouts over which the benchmarks are parameterized.
+ *
+ * @author Tom Gibara
+ */
+
+public enum Layout {
+
+	/** Tickets without any data */
+	NONE(Void.class) {
+		@Override
+		Object data(long accountId, int region) {
+			return null;
+		}
+	},
+
+	/** Tickets with data fields that are recorded in the clear */
+	OPEN(OpenData.class) {
+		@Override
+		Object data(final long accountId, final int region) {
+			return new OpenData() {
+				@Override public long getAccountId() { return accountId; }
+				@Override public int getRegion() { return region; }
+			};
+		}
+	},
+
+	/** Tickets with a data field that is encrypted */
+	SECRET(SecretData.class) {
+		@Override
+		Object data(final long accountId, final int region) {
+			return new SecretData() {
+				@Override public long getAccountId() { return accountId; }
+				@Override public int getRegion() { return region; }
+			};
+		}
+	};
+
+	public interface OpenData {
+
+		@TicketField(0)
+		long getAccountId();
+
+		@TicketField(1)
+		int getRegion();
+
+	}
+
+	public interface SecretData {
+
+		@TicketField(0)
+		long getAccountId();
+
+		@TicketField(value = 1, secret = true)
+		int getRegion();
+
+	}
+
+	final Class<?> dataType;
+
+	private Layout(Class<?> dataType) {
+		this.dataType = dataType;
+	}
+
+	abstract Object data(long accountId, int region);
+
+	Object[] values(long accountId, int region) {
+		return this == NONE ? new Object[0] : new Object[] { accountId, region };
+	}
+
+	// reads every field of data created with this layout
+	long read(Object data) {
+		switch (this) {
+		case OPEN:
+			OpenData open = (OpenData) data;
+			return open.getAccountId() + open.getRegion();
+		case SECRET:
+			SecretData secret = (SecretData) data;
+			return secret.getAccountId() + secret.getRegion();
+		default:
+			return 0L;
+		}
+	}
+
+}
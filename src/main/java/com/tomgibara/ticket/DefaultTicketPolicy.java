@@ -8,6 +8,9 @@ import java.io.Serializable;
  * The policy which is applied to ticket factories by default.
  * <p>
  * This class can serve as a convenient base class for custom policies.
+ * Settings which are not part of the {@link TicketPolicy} interface are only
+ * honoured for policies that extend this class; factories apply the default
+ * values of these settings to other policies.
  *
  * @author Tom Gibara
  *
@@ -17,6 +20,13 @@ public class DefaultTicketPolicy implements TicketPolicy, Serializable {
 
 	private static final long serialVersionUID = 3304016125579836480L;
 
+	private static final DefaultTicketPolicy DEFAULT = new DefaultTicketPolicy();
+
+	// the policy that supplies the settings which are not part of the interface
+	static DefaultTicketPolicy settings(TicketPolicy policy) {
+		return policy instanceof DefaultTicketPolicy ? (DefaultTicketPolicy) policy : DEFAULT;
+	}
+
 	/**
 	 * In the current implementation the returned default value is 256, this may
 	 * be revised in future.
@@ -39,4 +49,84 @@ public class DefaultTicketPolicy implements TicketPolicy, Serializable {
 		return 0;
 	}
 
+	/**
+	 * The number of milliseconds after which a {@link TicketMachine} that has
+	 * not been used is evicted from the machine cache of a
+	 * {@link TicketFactory}. Eviction of idle machines may be delayed by up to
+	 * half this period.
+	 * <p>
+	 * In the current implementation the returned default value is 0. This has
+	 * the effect of retaining cached machines until they are displaced by
+	 * others and may be revised in future.
+	 *
+	 * @return the idle time in milliseconds, or zero to retain machines
+	 *         regardless of use
+	 * @see #getMachineCacheSize()
+	 */
+
+	public long getMachineCacheIdleTime() {
+		return 0L;
+	}
+
+	/**
+	 * The number of sequence numbers that a {@link TicketMachine} should
+	 * reserve at once when its sequence is a {@link TicketRangeSequence}.
+	 * Numbers are then assigned to tickets from the reserved block without
+	 * consulting the sequence until the block is exhausted or the timestamp
+	 * changes. Larger blocks reduce the traffic to the sequence at the cost
+	 * of larger sequence numbers being assigned when blocks are abandoned.
+	 * This value is ignored for sequences that cannot reserve ranges.
+	 * <p>
+	 * In the current implementation the returned default value is 1. This has
+	 * the effect of obtaining every sequence number from the sequence and may
+	 * be revised in future.
+	 *
+	 * @return the block size, one or less to reserve numbers individually
+	 */
+
+	public int getSequenceBlockSize() {
+		return 1;
+	}
+
+	/**
+	 * The maximum number of decoded tickets that a {@link TicketFactory} may
+	 * retain so that repeated decodings of the same string can return the
+	 * previously decoded ticket. Cached tickets are keyed by their exact
+	 * string form.
+	 * <p>
+	 * Since a cached ticket is returned to every caller that decodes the same
+	 * string, tickets are not cached by factories whose origin or data types
+	 * have array fields; a caller modifying an array would otherwise alter the
+	 * values observed by other callers.
+	 * <p>
+	 * In the current implementation the returned default value is 0. This has
+	 * the effect of disabling ticket caching and may be revised in future.
+	 *
+	 * @return the maximum cache size, or zero to disable caching
+	 * @see TicketFactory#getTicketCacheStats()
+	 */
+
+	public int getTicketCacheSize() {
+		return 0;
+	}
+
+	/**
+	 * The age, relative to the ticket's timestamp, beyond which a decoded
+	 * ticket will no longer be returned from a {@link TicketFactory}'s ticket
+	 * cache. This allows the cache to favour tickets which are still in active
+	 * use.
+	 * <p>
+	 * In the current implementation the returned default value is 0, meaning
+	 * that cached tickets are retained irrespective of their age. This may be
+	 * revised in future.
+	 *
+	 * @return the maximum age in milliseconds, or zero for no limit
+	 * @see #getTicketCacheSize()
+	 * @see Ticket#getTimestamp()
+	 */
+
+	public long getTicketCacheMaxAge() {
+		return 0L;
+	}
+
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Ticket sequences that are persisted to a local file so that sequence numbers
+ * are not reassigned to the same timestamps after an application restarts.
+ * Each sequence is keyed by the string representation of its
+ * {@link TicketBasis}.
+ * <p>
+ * Sequence numbers are reserved in blocks. Only the upper limit of each block
+ * is recorded in the file (which is memory mapped) and forced to storage
+ * before any number in the block is issued. Numbers in the block are then
+ * issued without any further I/O. After a restart (including one following a
+ * crash) numbers are issued from beyond the recorded limits, so a number can
+ * never be issued twice for the same timestamp, though the numbers that
+ * remained unissued in the final blocks are skipped. Larger blocks reduce the
+ * frequency of writes at the cost of larger sequence numbers.
+ * <p>
+ * The file is locked for the lifetime of the instance, so a sequence file
+ * cannot be shared between processes or between instances in one process. The
+ * instance should be closed when no more tickets are to be issued; sequences
+ * obtained from a closed instance fail with a {@link TicketException}.
+ * <p>
+ * Instances of this class are safe for concurrent access by multiple threads.
+ *
+ * @author Tom Gibara
+ *
+ * @param <R>
+ *            the type of ticket origin
+ * @see TicketConfig#newFactory(TicketSequences, byte[]...)
+ */
+
+public final class FileTicketSequences<R> implements TicketSequences<R>, Closeable {
+
+	// statics
+
+	private static final int DEFAULT_BLOCK_SIZE = 1024;
+	private static final int MAGIC = 0x746b7371;
+	private static final int VERSION = 1;
+	// magic, version, end of records
+	private static final int HEADER_SIZE = 16;
+	// generation, timestamp, limit, floor, check
+	private static final int STATE_SIZE = 40;
+	private static final int INITIAL_SIZE = 4096;
+	// sequence numbers must remain below this limit
+	private static final long LIMIT = 1L << 61;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static long check(long generation, long timestamp, long limit, long floor) {
+		long h = MAGIC;
+		h = h * 0x9e3779b97f4a7c15L + generation;
+		h = h * 0x9e3779b97f4a7c15L + timestamp;
+		h = h * 0x9e3779b97f4a7c15L + limit;
+		h = h * 0x9e3779b97f4a7c15L + floor;
+		return h ^ (h >>> 29);
+	}
+
+	// fields
+
+	private final Path path;
+	private final int blockSize;
+	private final ConcurrentMap<String, FileSequence> sequences = new ConcurrentHashMap<String, FileSequence>();
+	private final FileChannel channel;
+	private final FileLock lock;
+	// guarded by this
+	private MappedByteBuffer buffer;
+	// the position at which the next record will be written, guarded by this
+	private int end;
+	private volatile boolean closed = false;
+
+	// constructors
+
+	/**
+	 * Opens a sequence file with a default block size, creating it if it does
+	 * not already exist.
+	 *
+	 * @param path
+	 *            the path of the sequence file
+	 * @throws IOException
+	 *             if the file could not be opened, or contained invalid data
+	 */
+
+	public FileTicketSequences(Path path) throws IOException {
+		this(path, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Opens a sequence file, creating it if it does not already exist.
+	 *
+	 * @param path
+	 *            the path of the sequence file
+	 * @param blockSize
+	 *            the minimum number of sequence numbers reserved each time the
+	 *            file is written
+	 * @throws IOException
+	 *             if the file could not be opened, or contained invalid data
+	 */
+
+	public FileTicketSequences(Path path, int blockSize) throws IOException {
+		if (path == null) throw new IllegalArgumentException("null path");
+		if (blockSize < 1) throw new IllegalArgumentException("non-positive blockSize");
+		this.path = path;
+		this.blockSize = blockSize;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				throw new IOException("sequence file already open: " + path);
+			}
+			if (lock == null) throw new IOException("sequence file locked: " + path);
+			long size = channel.size();
+			if (size == 0L) {
+				buffer = channel.map(MapMode.READ_WRITE, 0L, INITIAL_SIZE);
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, HEADER_SIZE);
+				buffer.force();
+			} else {
+				if (size > Integer.MAX_VALUE) throw new IOException("sequence file too large");
+				buffer = channel.map(MapMode.READ_WRITE, 0L, size);
+				if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("not a sequence file: " + path);
+				if (buffer.getInt(4) != VERSION) throw new IOException("unsupported sequence file version");
+			}
+			end = buffer.getInt(8);
+			if (end < HEADER_SIZE || end > buffer.capacity()) throw new IOException("invalid sequence file");
+			readRecords();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// accessors
+
+	/**
+	 * The path of the file to which sequences are persisted.
+	 *
+	 * @return the sequence file path
+	 */
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * The minimum number of sequence numbers that are reserved on each write
+	 * to the sequence file.
+	 *
+	 * @return the block size
+	 */
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	// sequences methods
+
+	@Override
+	public TicketSequence getSequence(TicketBasis<R> origin) {
+		String key = origin.toString();
+		FileSequence sequence = sequences.get(key);
+		if (sequence != null) return sequence;
+		synchronized (this) {
+			sequence = sequences.get(key);
+			if (sequence == null) {
+				checkOpen();
+				sequence = appendRecord(key);
+				sequences.put(key, sequence);
+			}
+		}
+		return sequence;
+	}
+
+	// closeable methods
+
+	/**
+	 * Forces any outstanding changes to storage and releases the file.
+	 *
+	 * @throws IOException
+	 *             if the file could not be closed
+	 */
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			buffer.force();
+		} finally {
+			channel.close();
+		}
+	}
+
+	// private helper methods
+
+	private void checkOpen() {
+		if (closed) throw new TicketException(TicketException.Reason.SEQUENCE, "sequence file closed");
+	}
+
+	private void readRecords() throws IOException {
+		int position = HEADER_SIZE;
+		while (position < end) {
+			if (end - position < 4) throw new IOException("truncated sequence file");
+			int length = buffer.getInt(position);
+			int offset = statesOffset(position, length);
+			if (length < 0 || offset < 0 || offset + 2 * STATE_SIZE > end) throw new IOException("truncated sequence file");
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buffer.get(position + 4 + i);
+			}
+			FileSequence sequence = new FileSequence(offset);
+			sequence.load();
+			sequences.put(new String(bytes, UTF8), sequence);
+			position = offset + 2 * STATE_SIZE;
+		}
+	}
+
+	// called with lock held
+	private FileSequence appendRecord(String key) {
+		byte[] bytes = key.getBytes(UTF8);
+		int offset = statesOffset(end, bytes.length);
+		int recordEnd = offset + 2 * STATE_SIZE;
+		if (offset < 0 || recordEnd < 0) throw new TicketException(TicketException.Reason.SEQUENCE, "sequence key too long");
+		try {
+			if (recordEnd > buffer.capacity()) {
+				long size = Math.min(Math.max((long) recordEnd, 2L * buffer.capacity()), Integer.MAX_VALUE);
+				buffer.force();
+				buffer = channel.map(MapMode.READ_WRITE, 0L, size);
+			}
+		} catch (IOException e) {
+			throw new TicketException(TicketException.Reason.SEQUENCE, "failed to extend sequence file", e);
+		}
+		buffer.putInt(end, bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put(end + 4 + i, bytes[i]);
+		}
+		FileSequence sequence = new FileSequence(offset);
+		sequence.store();
+		// the record only becomes visible after its contents have been written
+		buffer.putInt(8, recordEnd);
+		buffer.force();
+		end = recordEnd;
+		return sequence;
+	}
+
+	// keeps the state of the record aligned
+	private static int statesOffset(int position, int length) {
+		return (position + 4 + length + 7) & ~7;
+	}
+
+	// inner classes
+
+	// mirrors the in-memory Sequence: numbers for the current timestamp start
+	// from zero, regressed timestamps draw from above every number issued for
+	// earlier timestamps
+	private final class FileSequence implements TicketRangeSequence {
+
+		// the position of the two alternating copies of the persisted state
+		private final int offset;
+
+		// the persisted state
+		private long generation = 0L;
+		private long timestamp = Long.MIN_VALUE;
+		// no number at or above this has been issued for the timestamp
+		private long limit = 0L;
+		// no number at or above this has been issued for any other timestamp
+		private long floor = 0L;
+
+		// the next numbers to be issued from the reserved blocks
+		private long next = 0L;
+		private long nextFloor = 0L;
+
+		FileSequence(int offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public long nextSequenceNumber(long timestamp) throws TicketException {
+			return nextSequenceNumbers(timestamp, 1);
+		}
+
+		@Override
+		public synchronized long nextSequenceNumbers(long timestamp, int count) throws TicketException {
+			checkOpen();
+			if (timestamp == this.timestamp) {
+				if (limit - next < count) reserve(this.timestamp, next + Math.max(count, blockSize), floor);
+				long first = next;
+				next += count;
+				return first;
+			}
+			if (timestamp < this.timestamp) {
+				// clock has regressed
+				if (floor - nextFloor < count) reserve(this.timestamp, limit, nextFloor + Math.max(count, blockSize));
+				long first = nextFloor;
+				nextFloor += count;
+				return first;
+			}
+			// timestamp is new: everything issued so far lies below the new floor
+			long newFloor = Math.max(floor, limit);
+			reserve(timestamp, Math.max(count, blockSize), newFloor);
+			next = count;
+			nextFloor = newFloor;
+			return 0L;
+		}
+
+		void load() throws IOException {
+			State s0 = new State(offset);
+			State s1 = new State(offset + STATE_SIZE);
+			State s = s0.valid ? (s1.valid && s1.generation > s0.generation ? s1 : s0) : s1;
+			if (!s.valid) throw new IOException("corrupt sequence file");
+			generation = s.generation;
+			timestamp = s.timestamp;
+			limit = s.limit;
+			floor = s.floor;
+			// numbers in blocks reserved before the restart may have been issued
+			next = limit;
+			nextFloor = floor;
+		}
+
+		// called with outer lock held
+		void store() {
+			generation ++;
+			int position = offset + (int) (generation & 1L) * STATE_SIZE;
+			buffer.putLong(position     , generation);
+			buffer.putLong(position +  8, timestamp);
+			buffer.putLong(position + 16, limit);
+			buffer.putLong(position + 24, floor);
+			buffer.putLong(position + 32, check(generation, timestamp, limit, floor));
+		}
+
+		private void reserve(long timestamp, long limit, long floor) throws TicketException {
+			if (limit > LIMIT || floor > LIMIT) throw new TicketException(TicketException.Reason.SEQUENCE, "Sequence numbers exhausted");
+			synchronized (FileTicketSequences.this) {
+				checkOpen();
+				this.timestamp = timestamp;
+				this.limit = limit;
+				this.floor = floor;
+				store();
+				buffer.force();
+			}
+		}
+
+	}
+
+	// one of the two copies of a sequence's persisted state
+	private final class State {
+
+		final long generation;
+		final long timestamp;
+		final long limit;
+		final long floor;
+		final boolean valid;
+
+		State(int position) {
+			generation = buffer.getLong(position     );
+			timestamp  = buffer.getLong(position +  8);
+			limit      = buffer.getLong(position + 16);
+			floor      = buffer.getLong(position + 24);
+			valid = generation > 0L && buffer.getLong(position + 32) == check(generation, timestamp, limit, floor);
+		}
+
+	}
+
+}
@@ -35,8 +35,6 @@ class KeccakDigest
 {
     private static long[] KeccakRoundConstants = keccakInitializeRoundConstants();
 
-    private static int[] KeccakRhoOffsets = keccakInitializeRhoOffsets();
-
     private static long[] keccakInitializeRoundConstants()
     {
         long[] keccakRoundConstants = new long[24];
@@ -76,43 +74,27 @@ class KeccakDigest
         return result;
     }
 
-    private static int[] keccakInitializeRhoOffsets()
+    private static long littleEndianToLong(byte[] bs, int off)
     {
-        int[] keccakRhoOffsets = new int[25];
-        int x, y, t, newX, newY;
-
-        keccakRhoOffsets[(((0) % 5) + 5 * ((0) % 5))] = 0;
-        x = 1;
-        y = 0;
-        for (t = 0; t < 24; t++)
-        {
-            keccakRhoOffsets[(((x) % 5) + 5 * ((y) % 5))] = ((t + 1) * (t + 2) / 2) % 64;
-            newX = (0 * x + 1 * y) % 5;
-            newY = (2 * x + 3 * y) % 5;
-            x = newX;
-            y = newY;
-        }
-
-        return keccakRhoOffsets;
+        return
+                ((long) bs[off    ] & 0xff)       |
+                ((long) bs[off + 1] & 0xff) <<  8 |
+                ((long) bs[off + 2] & 0xff) << 16 |
+                ((long) bs[off + 3] & 0xff) << 24 |
+                ((long) bs[off + 4] & 0xff) << 32 |
+                ((long) bs[off + 5] & 0xff) << 40 |
+                ((long) bs[off + 6] & 0xff) << 48 |
+                ((long) bs[off + 7]       ) << 56;
     }
 
-    private byte[] state = new byte[(1600 / 8)];
-    private byte[] dataQueue = new byte[(1536 / 8)];
+    // the state is held as 25 little-endian lanes, input bytes are xored
+    // directly into the lanes so there is no separate data queue
+    private final long[] state = new long[25];
     private int rate;
-    private int bitsInQueue;
+    private int bytesInQueue;
     private int fixedOutputLength;
     private boolean squeezing;
-    private int bitsAvailableForSqueezing;
-    private byte[] chunk;
-    private byte[] oneByte;
-
-    private void clearDataQueueSection(int off, int len)
-    {
-        for (int i = off; i != off + len; i++)
-        {
-            dataQueue[i] = 0;
-        }
-    }
+    private int bytesAvailableForSqueezing;
 
     public KeccakDigest()
     {
@@ -125,15 +107,7 @@ class KeccakDigest
     }
 
     public KeccakDigest(KeccakDigest source) {
-        System.arraycopy(source.state, 0, this.state, 0, source.state.length);
-        System.arraycopy(source.dataQueue, 0, this.dataQueue, 0, source.dataQueue.length);
-        this.rate = source.rate;
-        this.bitsInQueue = source.bitsInQueue;
-        this.fixedOutputLength = source.fixedOutputLength;
-        this.squeezing = source.squeezing;
-        this.bitsAvailableForSqueezing = source.bitsAvailableForSqueezing;
-        this.chunk = source.chunk.clone();
-        this.oneByte = source.oneByte.clone();
+        restore(source);
     }
 
     public String getAlgorithmName()
@@ -148,19 +122,57 @@ class KeccakDigest
 
     public void update(byte in)
     {
-        oneByte[0] = in;
+        if (squeezing)
+        {
+            throw new IllegalStateException("attempt to absorb while squeezing.");
+        }
 
-        doUpdate(oneByte, 0, 8L);
+        int pos = bytesInQueue;
+        state[pos >>> 3] ^= (in & 0xffL) << ((pos & 7) << 3);
+        if (++pos == rate >>> 3)
+        {
+            keccakPermutation();
+            pos = 0;
+        }
+        bytesInQueue = pos;
     }
 
     public void update(byte[] in, int inOff, int len)
     {
-        doUpdate(in, inOff, len * 8L);
+        if (squeezing)
+        {
+            throw new IllegalStateException("attempt to absorb while squeezing.");
+        }
+
+        int rateBytes = rate >>> 3;
+        int pos = bytesInQueue;
+        int end = inOff + len;
+        while (inOff < end)
+        {
+            if ((pos & 7) == 0 && end - inOff >= 8)
+            {
+                // the rate is a whole number of lanes, so this never overruns
+                state[pos >>> 3] ^= littleEndianToLong(in, inOff);
+                inOff += 8;
+                pos += 8;
+            }
+            else
+            {
+                state[pos >>> 3] ^= (in[inOff++] & 0xffL) << ((pos & 7) << 3);
+                pos++;
+            }
+            if (pos == rateBytes)
+            {
+                keccakPermutation();
+                pos = 0;
+            }
+        }
+        bytesInQueue = pos;
     }
 
     public int doFinal(byte[] out, int outOff)
     {
-        squeeze(out, outOff, fixedOutputLength);
+        squeeze(out, outOff, fixedOutputLength / 8);
 
         reset();
 
@@ -172,6 +184,23 @@ class KeccakDigest
         init(fixedOutputLength);
     }
 
+    /**
+     * Returns this digest to the state captured by the supplied snapshot, a
+     * digest which is typically keyed with a secret and never finalized.
+     * This allows a single digest to be reused without allocation.
+     *
+     * @param snapshot the digest whose state should be adopted
+     */
+    public void restore(KeccakDigest snapshot)
+    {
+        System.arraycopy(snapshot.state, 0, this.state, 0, snapshot.state.length);
+        this.rate = snapshot.rate;
+        this.bytesInQueue = snapshot.bytesInQueue;
+        this.fixedOutputLength = snapshot.fixedOutputLength;
+        this.squeezing = snapshot.squeezing;
+        this.bytesAvailableForSqueezing = snapshot.bytesAvailableForSqueezing;
+    }
+
     /**
      * Return the size of block that the compression function is applied to in bytes.
      *
@@ -207,23 +236,6 @@ class KeccakDigest
         }
     }
 
-    private void doUpdate(byte[] data, int off, long databitlen)
-    {
-        if ((databitlen % 8) == 0)
-        {
-            absorb(data, off, databitlen);
-        }
-        else
-        {
-            absorb(data, off, databitlen - (databitlen % 8));
-
-            byte[] lastByte = new byte[1];
-
-            lastByte[0] = (byte)(data[off + (int)(databitlen / 8)] >> (8 - (databitlen % 8)));
-            absorb(lastByte, off, databitlen % 8);
-        }
-    }
-
     private void initSponge(int rate, int capacity)
     {
         if (rate + capacity != 1600)
@@ -236,334 +248,155 @@ class KeccakDigest
         }
 
         this.rate = rate;
-        // this is never read, need to check to see why we want to save it
-        //  this.capacity = capacity;
-        this.fixedOutputLength = 0;
-        Arrays.fill(this.state, (byte)0);
-        Arrays.fill(this.dataQueue, (byte)0);
-        this.bitsInQueue = 0;
+        Arrays.fill(this.state, 0L);
+        this.bytesInQueue = 0;
         this.squeezing = false;
-        this.bitsAvailableForSqueezing = 0;
+        this.bytesAvailableForSqueezing = 0;
         this.fixedOutputLength = capacity / 2;
-        this.chunk = new byte[rate / 8];
-        this.oneByte = new byte[1];
-    }
-
-    private void absorbQueue()
-    {
-        KeccakAbsorb(state, dataQueue, rate / 8);
-
-        bitsInQueue = 0;
-    }
-
-    private void absorb(byte[] data, int off, long databitlen)
-    {
-        long i, j, wholeBlocks;
-
-        if ((bitsInQueue % 8) != 0)
-        {
-            throw new IllegalStateException("attempt to absorb with odd length queue.");
-        }
-        if (squeezing)
-        {
-            throw new IllegalStateException("attempt to absorb while squeezing.");
-        }
-
-        i = 0;
-        while (i < databitlen)
-        {
-            if ((bitsInQueue == 0) && (databitlen >= rate) && (i <= (databitlen - rate)))
-            {
-                wholeBlocks = (databitlen - i) / rate;
-
-                for (j = 0; j < wholeBlocks; j++)
-                {
-                    System.arraycopy(data, (int)(off + (i / 8) + (j * chunk.length)), chunk, 0, chunk.length);
-
-//                            displayIntermediateValues.displayBytes(1, "Block to be absorbed", curData, rate / 8);
-
-                    KeccakAbsorb(state, chunk, chunk.length);
-                }
-
-                i += wholeBlocks * rate;
-            }
-            else
-            {
-                int partialBlock = (int)(databitlen - i);
-                if (partialBlock + bitsInQueue > rate)
-                {
-                    partialBlock = rate - bitsInQueue;
-                }
-                int partialByte = partialBlock % 8;
-                partialBlock -= partialByte;
-                System.arraycopy(data, off + (int)(i / 8), dataQueue, bitsInQueue / 8, partialBlock / 8);
-
-                bitsInQueue += partialBlock;
-                i += partialBlock;
-                if (bitsInQueue == rate)
-                {
-                    absorbQueue();
-                }
-                if (partialByte > 0)
-                {
-                    int mask = (1 << partialByte) - 1;
-                    dataQueue[bitsInQueue / 8] = (byte)(data[off + ((int)(i / 8))] & mask);
-                    bitsInQueue += partialByte;
-                    i += partialByte;
-                }
-            }
-        }
     }
 
     private void padAndSwitchToSqueezingPhase()
     {
-        if (bitsInQueue + 1 == rate)
-        {
-            dataQueue[bitsInQueue / 8] |= 1 << (bitsInQueue % 8);
-            absorbQueue();
-            clearDataQueueSection(0, rate / 8);
-        }
-        else
-        {
-            clearDataQueueSection((bitsInQueue + 7) / 8, rate / 8 - (bitsInQueue + 7) / 8);
-            dataQueue[bitsInQueue / 8] |= 1 << (bitsInQueue % 8);
-        }
-        dataQueue[(rate - 1) / 8] |= 1 << ((rate - 1) % 8);
-        absorbQueue();
-
-
-//            displayIntermediateValues.displayText(1, "--- Switching to squeezing phase ---");
-
-
-        if (rate == 1024)
-        {
-            KeccakExtract1024bits(state, dataQueue);
-            bitsAvailableForSqueezing = 1024;
-        }
-        else
-
-        {
-            KeccakExtract(state, dataQueue, rate / 64);
-            bitsAvailableForSqueezing = rate;
-        }
-
-//            displayIntermediateValues.displayBytes(1, "Block available for squeezing", dataQueue, bitsAvailableForSqueezing / 8);
+        // input is always byte aligned, so the first and last padding bits
+        // are the low bit of the next byte and the high bit of the last byte
+        int last = (rate >>> 3) - 1;
+        state[bytesInQueue >>> 3] ^= 0x01L << ((bytesInQueue & 7) << 3);
+        state[last >>> 3] ^= 0x80L << ((last & 7) << 3);
+        keccakPermutation();
 
+        bytesAvailableForSqueezing = rate >>> 3;
         squeezing = true;
     }
 
-    private void squeeze(byte[] output, int offset, long outputLength)
+    private void squeeze(byte[] output, int offset, int outputLength)
     {
-        long i;
-        int partialBlock;
-
         if (!squeezing)
         {
             padAndSwitchToSqueezingPhase();
         }
-        if ((outputLength % 8) != 0)
-        {
-            throw new IllegalStateException("outputLength not a multiple of 8");
-        }
 
-        i = 0;
-        while (i < outputLength)
+        int rateBytes = rate >>> 3;
+        int end = offset + outputLength;
+        while (offset < end)
         {
-            if (bitsAvailableForSqueezing == 0)
+            if (bytesAvailableForSqueezing == 0)
             {
-                keccakPermutation(state);
-
-                if (rate == 1024)
-                {
-                    KeccakExtract1024bits(state, dataQueue);
-                    bitsAvailableForSqueezing = 1024;
-                }
-                else
-
-                {
-                    KeccakExtract(state, dataQueue, rate / 64);
-                    bitsAvailableForSqueezing = rate;
-                }
-
-//                    displayIntermediateValues.displayBytes(1, "Block available for squeezing", dataQueue, bitsAvailableForSqueezing / 8);
-
+                keccakPermutation();
+                bytesAvailableForSqueezing = rateBytes;
             }
-            partialBlock = bitsAvailableForSqueezing;
-            if ((long)partialBlock > outputLength - i)
-            {
-                partialBlock = (int)(outputLength - i);
-            }
-
-            System.arraycopy(dataQueue, (rate - bitsAvailableForSqueezing) / 8, output, offset + (int)(i / 8), partialBlock / 8);
-            bitsAvailableForSqueezing -= partialBlock;
-            i += partialBlock;
-        }
-    }
-
-    private void fromBytesToWords(long[] stateAsWords, byte[] state)
-    {
-        for (int i = 0; i < (1600 / 64); i++)
-        {
-            stateAsWords[i] = 0;
-            int index = i * (64 / 8);
-            for (int j = 0; j < (64 / 8); j++)
-            {
-                stateAsWords[i] |= ((long)state[index + j] & 0xff) << ((8 * j));
-            }
-        }
-    }
-
-    private void fromWordsToBytes(byte[] state, long[] stateAsWords)
-    {
-        for (int i = 0; i < (1600 / 64); i++)
-        {
-            int index = i * (64 / 8);
-            for (int j = 0; j < (64 / 8); j++)
+            int pos = rateBytes - bytesAvailableForSqueezing;
+            int count = Math.min(bytesAvailableForSqueezing, end - offset);
+            for (int i = 0; i < count; i++, pos++)
             {
-                state[index + j] = (byte)((stateAsWords[i] >>> ((8 * j))) & 0xFF);
+                output[offset++] = (byte) (state[pos >>> 3] >>> ((pos & 7) << 3));
             }
+            bytesAvailableForSqueezing -= count;
         }
     }
 
-    private void keccakPermutation(byte[] state)
+    // the 24 rounds of theta, rho, pi, chi and iota over the lanes held in locals
+    private void keccakPermutation()
     {
-        long[] longState = new long[state.length / 8];
+        long[] A = state;
 
-        fromBytesToWords(longState, state);
+        long a00 = A[ 0], a01 = A[ 1], a02 = A[ 2], a03 = A[ 3], a04 = A[ 4];
+        long a05 = A[ 5], a06 = A[ 6], a07 = A[ 7], a08 = A[ 8], a09 = A[ 9];
+        long a10 = A[10], a11 = A[11], a12 = A[12], a13 = A[13], a14 = A[14];
+        long a15 = A[15], a16 = A[16], a17 = A[17], a18 = A[18], a19 = A[19];
+        long a20 = A[20], a21 = A[21], a22 = A[22], a23 = A[23], a24 = A[24];
 
-//        displayIntermediateValues.displayStateAsBytes(1, "Input of permutation", longState);
-
-        keccakPermutationOnWords(longState);
-
-//        displayIntermediateValues.displayStateAsBytes(1, "State after permutation", longState);
-
-        fromWordsToBytes(state, longState);
-    }
-
-    private void keccakPermutationAfterXor(byte[] state, byte[] data, int dataLengthInBytes)
-    {
-        int i;
-
-        for (i = 0; i < dataLengthInBytes; i++)
-        {
-            state[i] ^= data[i];
-        }
-
-        keccakPermutation(state);
-    }
-
-    private void keccakPermutationOnWords(long[] state)
-    {
-        int i;
-
-//        displayIntermediateValues.displayStateAs64bitWords(3, "Same, with lanes as 64-bit words", state);
-
-        for (i = 0; i < 24; i++)
+        for (int i = 0; i < 24; i++)
         {
-//            displayIntermediateValues.displayRoundNumber(3, i);
-
-            theta(state);
-//            displayIntermediateValues.displayStateAs64bitWords(3, "After theta", state);
-
-            rho(state);
-//            displayIntermediateValues.displayStateAs64bitWords(3, "After rho", state);
-
-            pi(state);
-//            displayIntermediateValues.displayStateAs64bitWords(3, "After pi", state);
-
-            chi(state);
-//            displayIntermediateValues.displayStateAs64bitWords(3, "After chi", state);
-
-            iota(state, i);
-//            displayIntermediateValues.displayStateAs64bitWords(3, "After iota", state);
+            // theta
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+            long d1 = (c1 << 1 | c1 >>> 63) ^ c4;
+            long d2 = (c2 << 1 | c2 >>> 63) ^ c0;
+            long d3 = (c3 << 1 | c3 >>> 63) ^ c1;
+            long d4 = (c4 << 1 | c4 >>> 63) ^ c2;
+            long d0 = (c0 << 1 | c0 >>> 63) ^ c3;
+
+            a00 ^= d1; a05 ^= d1; a10 ^= d1; a15 ^= d1; a20 ^= d1;
+            a01 ^= d2; a06 ^= d2; a11 ^= d2; a16 ^= d2; a21 ^= d2;
+            a02 ^= d3; a07 ^= d3; a12 ^= d3; a17 ^= d3; a22 ^= d3;
+            a03 ^= d4; a08 ^= d4; a13 ^= d4; a18 ^= d4; a23 ^= d4;
+            a04 ^= d0; a09 ^= d0; a14 ^= d0; a19 ^= d0; a24 ^= d0;
+
+            // rho and pi
+            c1  = a01 <<  1 | a01 >>> 63;
+            a01 = a06 << 44 | a06 >>> 20;
+            a06 = a09 << 20 | a09 >>> 44;
+            a09 = a22 << 61 | a22 >>>  3;
+            a22 = a14 << 39 | a14 >>> 25;
+            a14 = a20 << 18 | a20 >>> 46;
+            a20 = a02 << 62 | a02 >>>  2;
+            a02 = a12 << 43 | a12 >>> 21;
+            a12 = a13 << 25 | a13 >>> 39;
+            a13 = a19 <<  8 | a19 >>> 56;
+            a19 = a23 << 56 | a23 >>>  8;
+            a23 = a15 << 41 | a15 >>> 23;
+            a15 = a04 << 27 | a04 >>> 37;
+            a04 = a24 << 14 | a24 >>> 50;
+            a24 = a21 <<  2 | a21 >>> 62;
+            a21 = a08 << 55 | a08 >>>  9;
+            a08 = a16 << 45 | a16 >>> 19;
+            a16 = a05 << 36 | a05 >>> 28;
+            a05 = a03 << 28 | a03 >>> 36;
+            a03 = a18 << 21 | a18 >>> 43;
+            a18 = a17 << 15 | a17 >>> 49;
+            a17 = a11 << 10 | a11 >>> 54;
+            a11 = a07 <<  6 | a07 >>> 58;
+            a07 = a10 <<  3 | a10 >>> 61;
+            a10 = c1;
+
+            // chi
+            c0 = a00 ^ (~a01 & a02);
+            c1 = a01 ^ (~a02 & a03);
+            a02 ^= ~a03 & a04;
+            a03 ^= ~a04 & a00;
+            a04 ^= ~a00 & a01;
+            a00 = c0; a01 = c1;
+
+            c0 = a05 ^ (~a06 & a07);
+            c1 = a06 ^ (~a07 & a08);
+            a07 ^= ~a08 & a09;
+            a08 ^= ~a09 & a05;
+            a09 ^= ~a05 & a06;
+            a05 = c0; a06 = c1;
+
+            c0 = a10 ^ (~a11 & a12);
+            c1 = a11 ^ (~a12 & a13);
+            a12 ^= ~a13 & a14;
+            a13 ^= ~a14 & a10;
+            a14 ^= ~a10 & a11;
+            a10 = c0; a11 = c1;
+
+            c0 = a15 ^ (~a16 & a17);
+            c1 = a16 ^ (~a17 & a18);
+            a17 ^= ~a18 & a19;
+            a18 ^= ~a19 & a15;
+            a19 ^= ~a15 & a16;
+            a15 = c0; a16 = c1;
+
+            c0 = a20 ^ (~a21 & a22);
+            c1 = a21 ^ (~a22 & a23);
+            a22 ^= ~a23 & a24;
+            a23 ^= ~a24 & a20;
+            a24 ^= ~a20 & a21;
+            a20 = c0; a21 = c1;
+
+            // iota
+            a00 ^= KeccakRoundConstants[i];
         }
-    }
-
-    long[] C = new long[5];
 
-    private void theta(long[] A)
-    {
-        for (int x = 0; x < 5; x++)
-        {
-            C[x] = 0;
-            for (int y = 0; y < 5; y++)
-            {
-                C[x] ^= A[x + 5 * y];
-            }
-        }
-        for (int x = 0; x < 5; x++)
-        {
-            long dX = ((((C[(x + 1) % 5]) << 1) ^ ((C[(x + 1) % 5]) >>> (64 - 1)))) ^ C[(x + 4) % 5];
-            for (int y = 0; y < 5; y++)
-            {
-                A[x + 5 * y] ^= dX;
-            }
-        }
-    }
-
-    private void rho(long[] A)
-    {
-        for (int x = 0; x < 5; x++)
-        {
-            for (int y = 0; y < 5; y++)
-            {
-                int index = x + 5 * y;
-                A[index] = ((KeccakRhoOffsets[index] != 0) ? (((A[index]) << KeccakRhoOffsets[index]) ^ ((A[index]) >>> (64 - KeccakRhoOffsets[index]))) : A[index]);
-            }
-        }
-    }
-
-    long[] tempA = new long[25];
-
-    private void pi(long[] A)
-    {
-        System.arraycopy(A, 0, tempA, 0, tempA.length);
-
-        for (int x = 0; x < 5; x++)
-        {
-            for (int y = 0; y < 5; y++)
-            {
-                A[y + 5 * ((2 * x + 3 * y) % 5)] = tempA[x + 5 * y];
-            }
-        }
-    }
-
-    long[] chiC = new long[5];
-
-    private void chi(long[] A)
-    {
-        for (int y = 0; y < 5; y++)
-        {
-            for (int x = 0; x < 5; x++)
-            {
-                chiC[x] = A[x + 5 * y] ^ ((~A[(((x + 1) % 5) + 5 * y)]) & A[(((x + 2) % 5) + 5 * y)]);
-            }
-            for (int x = 0; x < 5; x++)
-            {
-                A[x + 5 * y] = chiC[x];
-            }
-        }
-    }
-
-    private void iota(long[] A, int indexRound)
-    {
-        A[(((0) % 5) + 5 * ((0) % 5))] ^= KeccakRoundConstants[indexRound];
-    }
-
-    private void KeccakAbsorb(byte[] byteState, byte[] data, int dataInBytes)
-    {
-        keccakPermutationAfterXor(byteState, data, dataInBytes);
-    }
-
-
-    private void KeccakExtract1024bits(byte[] byteState, byte[] data)
-    {
-        System.arraycopy(byteState, 0, data, 0, 128);
-    }
-
-
-    private void KeccakExtract(byte[] byteState, byte[] data, int laneCount)
-    {
-        System.arraycopy(byteState, 0, data, 0, laneCount * 8);
+        A[ 0] = a00; A[ 1] = a01; A[ 2] = a02; A[ 3] = a03; A[ 4] = a04;
+        A[ 5] = a05; A[ 6] = a06; A[ 7] = a07; A[ 8] = a08; A[ 9] = a09;
+        A[10] = a10; A[11] = a11; A[12] = a12; A[13] = a13; A[14] = a14;
+        A[15] = a15; A[16] = a16; A[17] = a17; A[18] = a18; A[19] = a19;
+        A[20] = a20; A[21] = a21; A[22] = a22; A[23] = a23; A[24] = a24;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.tomgibara.bits.BitBoundary;
+import com.tomgibara.bits.BitReader;
+import com.tomgibara.bits.BitVector;
+import com.tomgibara.bits.BitWriter;
+
+// a reusable writer that accumulates bits in an array of longs; the bits form
+// a big-endian number, as they do in BitVector.toByteArray(), so the first bit
+// written is the most significant bit of the first long
+final class LongBitWriter implements BitWriter {
+
+	// statics
+
+	// the count bits of a big-endian number from its bit at index from
+	static long bits(byte[] bytes, int from, int count) {
+		long value = 0L;
+		int last = bytes.length - 1;
+		for (int i = from + count - 1; i >= from; i--) {
+			value = value << 1 | bytes[last - (i >> 3)] >> (i & 7) & 1;
+		}
+		return value;
+	}
+
+	// fields
+
+	private long[] words = new long[4];
+	private int size = 0;
+	// the last bytes produced by toByteArray
+	private byte[] bytes = new byte[32];
+
+	// accessors
+
+	int size() {
+		return size;
+	}
+
+	// bit writer methods
+
+	@Override
+	public int writeBit(int bit) {
+		return write((long) bit, 1);
+	}
+
+	@Override
+	public int writeBoolean(boolean bit) {
+		return write(bit ? 1L : 0L, 1);
+	}
+
+	@Override
+	public long writeBooleans(boolean value, long count) {
+		for (long remaining = count; remaining > 0L; remaining -= 64L) {
+			write(value ? -1L : 0L, (int) Math.min(remaining, 64L));
+		}
+		return count;
+	}
+
+	@Override
+	public int write(int bits, int count) {
+		return write((long) bits, count);
+	}
+
+	@Override
+	public int write(long bits, int count) {
+		if (count == 0) return 0;
+		ensureCapacity(size + count);
+		if (count < 64) bits &= (1L << count) - 1L;
+		int index = size >> 6;
+		int free = 64 - (size & 63);
+		if (count <= free) {
+			words[index] |= bits << free - count;
+		} else {
+			int spill = count - free;
+			words[index] |= bits >>> spill;
+			words[index + 1] = bits << 64 - spill;
+		}
+		size += count;
+		return count;
+	}
+
+	@Override
+	public int write(BigInteger bits, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			write(bits.testBit(i) ? 1L : 0L, 1);
+		}
+		return count;
+	}
+
+	@Override
+	public int flush() {
+		return 0;
+	}
+
+	@Override
+	public int padToBoundary(BitBoundary boundary) {
+		int bits;
+		switch (boundary) {
+		case BYTE : bits = 8; break;
+		case SHORT: bits = 16; break;
+		case INT  : bits = 32; break;
+		default   : bits = 64; break;
+		}
+		int count = (bits - (size & bits - 1)) & bits - 1;
+		return write(0L, count);
+	}
+
+	@Override
+	public long getPosition() {
+		return size;
+	}
+
+	// package methods
+
+	// discards all written bits
+	void reset() {
+		Arrays.fill(words, 0, (size + 63) >> 6, 0L);
+		size = 0;
+	}
+
+	// writes count bits read from the reader
+	void readFrom(BitReader reader, int count) {
+		for (; count > 0; count -= 64) {
+			int n = count < 64 ? count : 64;
+			write(reader.readLong(n), n);
+		}
+	}
+
+	// writes the low count bits of a big-endian number
+	void writeBits(byte[] bytes, int count) {
+		for (int from = count; from > 0; from -= 64) {
+			int n = from < 64 ? from : 64;
+			write(bits(bytes, from - n, n), n);
+		}
+	}
+
+	// xors the bits written with the low bits of a big-endian number
+	void xorBits(byte[] bytes) {
+		int count = size >> 6;
+		for (int i = 0; i < count; i++) {
+			words[i] ^= bits(bytes, size - 64 * (i + 1), 64);
+		}
+		int remainder = size & 63;
+		if (remainder > 0) {
+			words[count] ^= bits(bytes, 0, remainder) << 64 - remainder;
+		}
+	}
+
+	// writes the bits to another writer
+	void writeTo(BitWriter writer) {
+		int count = size >> 6;
+		for (int i = 0; i < count; i++) {
+			writer.write(words[i], 64);
+		}
+		int remainder = size & 63;
+		if (remainder > 0) writer.write(words[count] >>> 64 - remainder, remainder);
+	}
+
+	// the bits as a big-endian number, as per BitVector.toByteArray()
+	// the returned array is only valid until the next call and may be longer than the number
+	byte[] toByteArray() {
+		int length = (size + 7) >> 3;
+		if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+		// the leading byte holds the bits which do not fill a whole byte
+		int lead = size & 7;
+		int position = 0;
+		int i = 0;
+		if (lead > 0) {
+			bytes[i++] = (byte) read(0, lead);
+			position = lead;
+		}
+		for (; i < length; i++, position += 8) {
+			bytes[i] = (byte) read(position, 8);
+		}
+		return bytes;
+	}
+
+	// the number of bytes in the array returned by toByteArray()
+	int byteLength() {
+		return (size + 7) >> 3;
+	}
+
+	BitVector toBitVector() {
+		BitVector vector = new BitVector(size);
+		writeTo(vector.openWriter());
+		return vector;
+	}
+
+	// private helper methods
+
+	private void ensureCapacity(int capacity) {
+		int length = (capacity + 63) >> 6;
+		if (length > words.length) words = Arrays.copyOf(words, Math.max(length, words.length * 2));
+	}
+
+	// reads up to 8 bits from the given position
+	private int read(int position, int count) {
+		int index = position >> 6;
+		int offset = position & 63;
+		long word = words[index] << offset;
+		if (offset + count > 64) word |= words[index + 1] >>> 64 - offset;
+		return (int) (word >>> 64 - count);
+	}
+
+}
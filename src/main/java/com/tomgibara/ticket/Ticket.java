@@ -31,6 +31,10 @@ import com.tomgibara.bits.BitVector;
  * and ticket specific data (for example, the id of an associated session or
  * transaction).
  * <p>
+ * Tickets are naturally ordered by their timestamps and then by their sequence
+ * numbers. This ordering is inconsistent with equals: tickets with different
+ * origins or data may compare as equal.
+ * <p>
  * Instances of this class are safe for concurrent access by multiple threads.
  *
  * @author Tom Gibara
@@ -41,7 +45,7 @@ import com.tomgibara.bits.BitVector;
  *            the type of data information recorded
  */
 
-public final class Ticket<R, D> {
+public final class Ticket<R, D> implements Comparable<Ticket<?, ?>> {
 
 	// statics
 
@@ -75,26 +79,51 @@ public final class Ticket<R, D> {
 		}
 	}
 
+	// supplies the origin and data of a ticket when they are first accessed
+	interface Contents<R, D> {
+
+		// must call setContents on the ticket
+		void resolve(Ticket<R, D> ticket) throws TicketException;
+
+	}
+
 	// fields
 
 	private final TicketSpec spec;
 	private final BitVector bits;
 	private final long millis;
 	private final long seq;
-	private final R origin;
-	private final D data;
-	private final String string;
+	// used to generate the string if the ticket was not decoded from a String
+	private final TicketFormat format;
+	private String string;
+	// assigned before contents is cleared when decoded lazily
+	private R origin;
+	private D data;
+	// null once origin and data are available
+	private volatile Contents<R, D> contents;
 
 	// constructors
 
-	Ticket(TicketSpec spec, BitVector bits, long timestamp, long seq, R origin, D data, String string) {
+	Ticket(TicketSpec spec, BitVector bits, long timestamp, long seq, R origin, D data, TicketFormat format, String string) {
 		this.spec = spec;
 		this.bits = bits;
 		this.millis = spec.timestampToMillis(timestamp);
 		this.seq = seq;
 		this.origin = origin;
 		this.data = data;
+		this.format = format;
+		this.string = string;
+		this.contents = null;
+	}
+
+	Ticket(TicketSpec spec, BitVector bits, long timestamp, long seq, Contents<R, D> contents, TicketFormat format, String string) {
+		this.spec = spec;
+		this.bits = bits;
+		this.millis = spec.timestampToMillis(timestamp);
+		this.seq = seq;
+		this.format = format;
 		this.string = string;
+		this.contents = contents;
 	}
 
 	// accessors
@@ -138,10 +167,15 @@ public final class Ticket<R, D> {
 	 * type.
 	 *
 	 * @return the origin of the ticket, possibly null
+	 * @throws TicketException
+	 *             if the ticket was decoded lazily and its origin could not be
+	 *             decoded
 	 * @see TicketConfig#getOriginType()
+	 * @see TicketFactory#decodeTicketLazily(String)
 	 */
 
-	public R getOrigin() {
+	public R getOrigin() throws TicketException {
+		if (contents != null) resolveContents();
 		return origin;
 	}
 
@@ -150,10 +184,15 @@ public final class Ticket<R, D> {
 	 * type is Void.
 	 *
 	 * @return data about the ticket, possibly null
+	 * @throws TicketException
+	 *             if the ticket was decoded lazily and its data could not be
+	 *             decoded
 	 * @see TicketConfig#getDataType()
+	 * @see TicketFactory#decodeTicketLazily(String)
 	 */
 
-	public D getData() {
+	public D getData() throws TicketException {
+		if (contents != null) resolveContents();
 		return data;
 	}
 
@@ -185,6 +224,10 @@ public final class Ticket<R, D> {
 	 * A compact ASCII encoding of the information recorded in this ticket. This
 	 * is the mechanism by which tickets are intended to be shared with users or
 	 * other system components.
+	 * <p>
+	 * A ticket that was decoded from a string returns that same string. A
+	 * ticket that was decoded from some other representation of its characters
+	 * returns a string generated in the format of the decoding factory.
 	 *
 	 * @return a compact ASCII string
 	 * @see TicketFormat
@@ -192,7 +235,60 @@ public final class Ticket<R, D> {
 
 	@Override
 	public String toString() {
+		String string = this.string;
+		if (string == null) {
+			// racy, but strings are safely published and equal
+			string = format.encode(bits, Integer.MAX_VALUE);
+			this.string = string;
+		}
 		return string;
 	}
 
+	// comparable methods
+
+	/**
+	 * Compares tickets by their timestamps and then by their sequence numbers.
+	 * For tickets which share a sortable specification and are encoded in a
+	 * sortable format, this agrees with the lexicographic order of their
+	 * strings.
+	 *
+	 * @param that
+	 *            the ticket to compare with
+	 * @return a negative number, zero or a positive number as this ticket was
+	 *         created before, with or after the supplied ticket
+	 * @see TicketSpec#isSortable()
+	 */
+
+	@Override
+	public int compareTo(Ticket<?, ?> that) {
+		if (this.millis != that.millis) return this.millis < that.millis ? -1 : 1;
+		if (this.seq != that.seq) return this.seq < that.seq ? -1 : 1;
+		return 0;
+	}
+
+	// package methods
+
+	// decodes the origin and data if the ticket was decoded lazily
+	void resolve() throws TicketException {
+		if (contents != null) resolveContents();
+	}
+
+	void setContents(R origin, D data) {
+		this.origin = origin;
+		this.data = data;
+	}
+
+	// private utility methods
+
+	private void resolveContents() {
+		Contents<R, D> contents = this.contents;
+		if (contents == null) return;
+		synchronized (contents) {
+			if (this.contents == null) return;
+			contents.resolve(this);
+			// publishes the origin and data
+			this.contents = null;
+		}
+	}
+
 }
@@ -17,10 +17,14 @@
 package com.tomgibara.ticket;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -50,6 +54,8 @@ final class TicketAdapter<T> implements Serializable {
 		null,           null,           null,           new double[0],  new boolean[0], null,           null,           null
 	};
 
+	private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
 	private static int hash(Class<?> clss) {
 		return (clss.getName().hashCode() >> 8) & 0xf;
 	}
@@ -135,6 +141,19 @@ final class TicketAdapter<T> implements Serializable {
 		return fields;
 	}
 
+	private static Constructor<?> proxyConstructor(Class<?> proxyClass) {
+		if (proxyClass == null) return null;
+		try {
+			Constructor<?> constructor = proxyClass.getConstructor(InvocationHandler.class);
+			// as per Proxy.newProxyInstance
+			if (!Modifier.isPublic(proxyClass.getModifiers())) constructor.setAccessible(true);
+			return constructor;
+		} catch (NoSuchMethodException | SecurityException e) {
+			// fall back to creating proxies via Proxy
+			return null;
+		}
+	}
+
 	private static Map<Method, Integer> computeLookup(Field[] fields) {
 		Map<Method, Integer> map = new HashMap<Method, Integer>();
 		for (Field field : fields) {
@@ -211,11 +230,13 @@ final class TicketAdapter<T> implements Serializable {
 
 	private final Class<?>[] ifaces;
 	private final Class<?> proxyClass;
+	private final Constructor<?> proxyConstructor;
 	private final Field[] fields;
 	private final Object[] defaults;
 	private final Map<Method, Integer> lookup;
 	private final Field[] openFields;
 	private final Field[] secretFields;
+	private final boolean arrayed;
 
 	// constructors
 
@@ -230,6 +251,7 @@ final class TicketAdapter<T> implements Serializable {
 			ifaces = new Class[] {iface};
 			proxyClass = Proxy.getProxyClass(iface.getClassLoader(), ifaces);
 		}
+		proxyConstructor = proxyConstructor(proxyClass);
 		fields = deriveFields(iface);
 		defaults = generateDefaults(fields);
 		lookup = computeLookup(fields);
@@ -238,13 +260,16 @@ final class TicketAdapter<T> implements Serializable {
 		// they will be needed if the adapter is called on to separate private fields
 		int openCount = 0;
 		int secretCount = 0;
+		boolean arrayed = false;
 		for (Field field : fields) {
+			arrayed = arrayed || field.array;
 			if (field.secret) {
 				secretCount ++;
 			} else {
 				openCount ++;
 			}
 		}
+		this.arrayed = arrayed;
 		openFields = openCount == 0 ? NO_FIELDS : new Field[openCount];
 		secretFields = secretCount == 0 ? NO_FIELDS : new Field[secretCount];
 		int oi = 0;
@@ -273,6 +298,15 @@ final class TicketAdapter<T> implements Serializable {
 		return secretFields.length > 0;
 	}
 
+	boolean isOpen() {
+		return openFields.length > 0;
+	}
+
+	// whether adapted values expose mutable arrays
+	boolean isArrayed() {
+		return arrayed;
+	}
+
 	// package methods
 
 	Object[] defaultValues(Object... values) {
@@ -301,7 +335,13 @@ final class TicketAdapter<T> implements Serializable {
 	@SuppressWarnings("unchecked")
 	T adapt(Object... values) {
 		if (iface == null) return null;
-		return (T) Proxy.newProxyInstance(iface.getClassLoader(), ifaces, new Handler(lookup, values));
+		Handler handler = new Handler(lookup, values);
+		if (proxyConstructor == null) return (T) Proxy.newProxyInstance(iface.getClassLoader(), ifaces, handler);
+		try {
+			return (T) proxyConstructor.newInstance(handler);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to instantiate proxy", e);
+		}
 	}
 
 	Object[] unadapt(T value) {
@@ -316,12 +356,11 @@ final class TicketAdapter<T> implements Serializable {
 		Object[] values = new Object[length];
 		for (int i = 0; i < length; i++) {
 			Field field = fields[i];
+			if (field.accessor == null) throw new TicketException("Cannot access field " + field.name);
 			Object obj;
 			try {
-				obj = field.getter.invoke(value);
-			} catch (IllegalAccessException e) {
-				throw new TicketException("Cannot access field " + field.name, e);
-			} catch (InvocationTargetException e) {
+				obj = (Object) field.accessor.invokeExact((Object) value);
+			} catch (Throwable e) {
 				throw new TicketException("Failed to access field " + field.name, e);
 			}
 			values[i] = obj == null ? defaults[i] : obj;
@@ -362,6 +401,45 @@ final class TicketAdapter<T> implements Serializable {
 		return adapt(values);
 	}
 
+	// reads over the fields without retaining their values, false if there are too many
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	boolean skip(CodedReader r, boolean secret) {
+		Field[] fields = secret ? secretFields : openFields;
+		int count = r.readPositiveInt();
+		if (count > fields.length) return false;
+		for (int i = 0; i < count; i++) {
+			Field field = fields[i];
+			switch (field.hash) {
+			case /*String*/   0: CodedStreams.readString(r);                             break;
+			case /*boolean*/ 12: r.getReader().readBoolean();                            break;
+			case /*char*/     3: r.readPositiveInt();                                    break;
+			case /*byte*/     1:
+			case /*short*/    4:
+			case /*int*/      7: r.readInt();                                            break;
+			case /*float*/    2: r.readFloat();                                          break;
+			case /*long*/     6: r.readLong();                                           break;
+			case /*double*/  11: r.readDouble();                                         break;
+			case /*enum*/     5: CodedStreams.readEnum(r, (Class) field.objType);        break;
+
+			/* arrays */
+			case /*boolean*/ 28: CodedStreams.readBooleanArray(r);                       break;
+			case /*byte*/    17: CodedStreams.readByteArray(r);                          break;
+			case /*short*/   20: CodedStreams.readShortArray(r);                         break;
+			case /*char*/    19: CodedStreams.readCharArray(r);                          break;
+			case /*int*/     23: CodedStreams.readIntArray(r);                           break;
+			case /*float*/   18: CodedStreams.readFloatArray(r);                         break;
+			case /*long*/    22: CodedStreams.readLongArray(r);                          break;
+			case /*double*/  27: CodedStreams.readDoubleArray(r);                        break;
+			case /*enum a.*/ 21:
+				CodedStreams.readEnumArray(r, (Class) field.objType.getComponentType());
+				break;
+
+			default            : throw new IllegalStateException();
+			}
+		}
+		return true;
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	void read(CodedReader r, boolean secret, Object... values) throws TicketException {
 		Field[] fields = secret ? secretFields : openFields;
@@ -371,7 +449,7 @@ final class TicketAdapter<T> implements Serializable {
 			if (count == 0) {
 				if (iface == null) return;
 			} else if (count > fields.length) {
-				throw new TicketException("Too many data fields " + count + " " + fields.length);
+				throw new TicketException(TicketException.Reason.MALFORMED, "Too many data fields " + count + " " + fields.length);
 			} else {
 				for (int i = 0; i < count; i++) {
 					Field field = fields[i];
@@ -411,7 +489,7 @@ final class TicketAdapter<T> implements Serializable {
 				}
 			}
 		} catch (BitStreamException e) {
-			throw new TicketException("Invalid ticket bits", e);
+			throw new TicketException(TicketException.Reason.MALFORMED, "Invalid ticket bits", e);
 		}
 	}
 
@@ -450,6 +528,8 @@ final class TicketAdapter<T> implements Serializable {
 		final int index;
 		final String name;
 		final Method getter;
+		// null if the getter is not accessible to the adapter
+		final MethodHandle accessor;
 		final boolean secret;
 		final Class<?> objType;
 		final boolean string;
@@ -463,6 +543,7 @@ final class TicketAdapter<T> implements Serializable {
 			this.secret = secret;
 
 			name = fieldName(getter.getName());
+			accessor = accessor(getter);
 			Class<?> type = getter.getReturnType();
 			string = type == String.class;
 			array = type.isArray();
@@ -494,6 +575,14 @@ final class TicketAdapter<T> implements Serializable {
 			}
 		}
 
+		private static MethodHandle accessor(Method getter) {
+			try {
+				return MethodHandles.lookup().unreflect(getter).asType(ACCESSOR_TYPE);
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+
 		public int compareTo(Field that) {
 			return this.index - that.index;
 		}
@@ -542,6 +631,9 @@ final class TicketAdapter<T> implements Serializable {
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args) {
+			// getters are looked up before the Object methods are compared
+			Integer index = lookup.get(method);
+			if (index != null) return values[index];
 			if (method.equals(TO_STRING)) {
 				Map<String, Object> map = new HashMap<String, Object>();
 				for (Entry<Method,Integer> entry : lookup.entrySet()) {
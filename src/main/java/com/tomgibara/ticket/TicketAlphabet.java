@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The characters with which tickets are encoded as strings. Denser alphabets
+ * produce shorter strings. Tickets encoded with any alphabet remain decodable
+ * by a factory irrespective of its current format, because the tickets of all
+ * alphabets other than {@link #BASE32} are prefixed with a designating
+ * character that does not occur in the base 32 encoding.
+ * <p>
+ * Within a ticket, characters which are not part of the alphabet are ignored;
+ * they may be used to separate groups of characters and to pad tickets to a
+ * whole number of groups.
+ *
+ * @author Tom Gibara
+ * @see TicketFormat#getAlphabet()
+ */
+
+public enum TicketAlphabet {
+
+	/**
+	 * Encodes 5 bits per character using digits and letters, omitting the
+	 * letters i, l, o and z. This alphabet is case insensitive and is the
+	 * alphabet of the default format. Tickets are not prefixed.
+	 */
+
+	BASE32("0123456789abcdefghjkmnpqrstuvwxy", false, '\0', 'z'),
+
+	/**
+	 * Encodes 6 bits per character using digits, letters, hyphens and
+	 * underscores, making the tickets safe for inclusion in URLs. Tickets are
+	 * prefixed with a tilde and padded with periods.
+	 */
+
+	BASE64_URL("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", true, '~', '.'),
+
+	/**
+	 * Encodes approximately 5.86 bits per character using digits and letters,
+	 * omitting the easily confused characters 0, O, I and l. Groups of 41 bits
+	 * are encoded as 7 characters. Tickets are prefixed with an upper case I
+	 * and padded with lower case ls.
+	 */
+
+	BASE58("123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz", true, 'I', 'l');
+
+	// statics
+
+	// the base 58 alphabet encodes these bits as 7 characters,
+	// and 6n-1 bits as n characters for n < 7
+	static final int BASE58_CHUNK_BITS = 41;
+	static final int BASE58_CHUNK_CHARS = 7;
+
+	// powers of 58
+	static final long[] BASE58_POWERS = new long[BASE58_CHUNK_CHARS];
+	static {
+		long power = 1L;
+		for (int i = 0; i < BASE58_CHUNK_CHARS; i++) {
+			BASE58_POWERS[i] = power;
+			power *= 58;
+		}
+	}
+
+	// the alphabet used to encode the string
+	static TicketAlphabet of(CharSequence str) {
+		if (str.length() > 0) {
+			char c = str.charAt(0);
+			if (c == BASE64_URL.designator) return BASE64_URL;
+			if (c == BASE58.designator) return BASE58;
+		}
+		return BASE32;
+	}
+
+	// fields
+
+	final char[] chars;
+	final boolean caseSensitive;
+	// zero if tickets are not prefixed
+	final char designator;
+	final char padChar;
+	// indexed by ASCII character, -1 for characters not in the alphabet
+	final int[] values = new int[128];
+	// zero if the characters do not encode a whole number of bits
+	final int bitsPerChar;
+	// whether the order of encoded strings matches the order of their bits
+	final boolean sortable;
+
+	// constructors
+
+	private TicketAlphabet(String chars, boolean caseSensitive, char designator, char padChar) {
+		this.chars = chars.toCharArray();
+		this.caseSensitive = caseSensitive;
+		this.designator = designator;
+		this.padChar = padChar;
+		Arrays.fill(values, -1);
+		for (int i = 0; i < this.chars.length; i++) {
+			char c = this.chars[i];
+			values[c] = i;
+			if (!caseSensitive) values[Character.toUpperCase(c)] = i;
+		}
+		int size = this.chars.length;
+		bitsPerChar = Integer.bitCount(size) == 1 ? Integer.numberOfTrailingZeros(size) : 0;
+		sortable = bitsPerChar != 0 && ascending(this.chars)
+				&& (caseSensitive || ascending(chars.toUpperCase().toCharArray()));
+	}
+
+	// accessors
+
+	/**
+	 * The number of distinct characters with which the alphabet encodes
+	 * tickets.
+	 *
+	 * @return the size of the alphabet
+	 */
+
+	public int getSize() {
+		return chars.length;
+	}
+
+	/**
+	 * Whether the alphabet distinguishes between upper and lower case
+	 * characters. Only case insensitive alphabets can be formatted in upper
+	 * case.
+	 *
+	 * @return true if the case of the characters is significant
+	 * @see TicketFormat#isUpperCase()
+	 */
+
+	public boolean isCaseSensitive() {
+		return caseSensitive;
+	}
+
+	/**
+	 * Whether tickets encoded with this alphabet sort lexicographically in the
+	 * order of their bits. This is only the case for alphabets which encode a
+	 * whole number of bits with characters in ascending ASCII order; of the
+	 * supplied alphabets, only {@link #BASE32} is sortable.
+	 *
+	 * @return true if encoded tickets preserve the order of their bits
+	 * @see TicketSpec#isSortable()
+	 */
+
+	public boolean isSortable() {
+		return sortable;
+	}
+
+	// package methods
+
+	boolean isEncodingChar(char c) {
+		return c == designator || c < 128 && values[c] != -1;
+	}
+
+	// the number of zero bits that must follow a ticket of the given size
+	int padding(int size) {
+		if (bitsPerChar != 0) return (bitsPerChar - size % bitsPerChar) % bitsPerChar;
+		int r = size % BASE58_CHUNK_BITS;
+		return r == 0 ? 0 : (r + 6) / 6 * 6 - 1 - r;
+	}
+
+	// the number of characters required to encode a ticket of the given size
+	int charCount(int size) {
+		size += padding(size);
+		if (bitsPerChar != 0) return size / bitsPerChar;
+		return size / BASE58_CHUNK_BITS * BASE58_CHUNK_CHARS + (size % BASE58_CHUNK_BITS + 1) / 6;
+	}
+
+	// private helper methods
+
+	private static boolean ascending(char[] chars) {
+		for (int i = 1; i < chars.length; i++) {
+			if (chars[i] <= chars[i - 1]) return false;
+		}
+		return true;
+	}
+
+}
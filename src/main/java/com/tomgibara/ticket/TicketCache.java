@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A concurrent cache with approximate LRU eviction. Reads take no locks and
+// record accesses with a coarse timestamp that is only written when it
+// changes. Eviction is performed by whichever thread finds the cache over
+// capacity and can acquire the eviction lock; other threads never wait for it.
+// The oldest of a small sample of entries is evicted each time, the samples
+// being drawn from a long-lived iterator so that all entries are considered.
+// Limits are obtained from the subclass on every use so that they can track
+// values supplied by a policy. Statistics are recorded in striped counters so
+// that threads do not contend over them.
+abstract class TicketCache<K, V> {
+
+	// statics
+
+	// the number of entries examined to choose each entry for eviction
+	private static final int SAMPLE_SIZE = 8;
+
+	// the interval between idle sweeps while idle eviction is disabled
+	private static final long DISABLED_SWEEP_INTERVAL = 1000L;
+
+	// a monotonic time in millis, unaffected by changes to the system clock
+	private static final TicketClock MONOTONIC = new TicketClock() {
+		@Override
+		public long millis() {
+			return System.nanoTime() / 1000000L;
+		}
+	};
+
+	// fields
+
+	private final TicketClock clock;
+	private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<K, Entry<V>>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	// guarded by the eviction lock
+	private Iterator<Map.Entry<K, Entry<V>>> sampler = null;
+	// time at which idle entries should next be swept from the cache
+	private volatile long nextSweep = 0L;
+
+	private final Counter hits = new Counter();
+	private final Counter misses = new Counter();
+	private final Counter evictions = new Counter();
+
+	// constructors
+
+	TicketCache() {
+		this(MONOTONIC);
+	}
+
+	// the clock supplies the times with which idle entries are identified
+	TicketCache(TicketClock clock) {
+		this.clock = clock;
+	}
+
+	// limits
+
+	// the maximum number of entries, zero or less disables the cache
+	abstract int capacity();
+
+	// millis after which an unused entry is evicted, zero or less to disable
+	abstract long idleTime();
+
+	// whether a value should no longer be returned from the cache
+	boolean expired(V value) {
+		return false;
+	}
+
+	// methods
+
+	int size() {
+		return map.size();
+	}
+
+	TicketCacheStats getStats() {
+		return new TicketCacheStats(hits.sum(), misses.sum(), evictions.sum(), map.size());
+	}
+
+	V get(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		long now = clock.millis();
+		long idleTime = idleTime();
+		if (idleTime > 0L && now - entry.accessed > idleTime || expired(entry.value)) {
+			if (map.remove(key, entry)) evictions.increment();
+			misses.increment();
+			return null;
+		}
+		entry.touch(now);
+		if (now >= nextSweep) maintain(now);
+		hits.increment();
+		return entry.value;
+	}
+
+	void put(K key, V value) {
+		if (!enabled()) return;
+		long now = clock.millis();
+		map.put(key, new Entry<V>(value, now));
+		maintain(now);
+	}
+
+	// records an access to the value, adding it to the cache if it is not present
+	void touch(K key, V value) {
+		if (!enabled()) return;
+		long now = clock.millis();
+		Entry<V> entry = map.get(key);
+		if (entry != null && entry.value == value) {
+			entry.touch(now);
+			if (now >= nextSweep) maintain(now);
+		} else {
+			map.put(key, new Entry<V>(value, now));
+			maintain(now);
+		}
+	}
+
+	void remove(K key) {
+		map.remove(key);
+	}
+
+	void clear() {
+		map.clear();
+	}
+
+	// private helper methods
+
+	private boolean enabled() {
+		if (capacity() > 0) return true;
+		if (!map.isEmpty()) map.clear();
+		return false;
+	}
+
+	private void maintain(long now) {
+		int capacity = capacity();
+		if (map.size() <= capacity && now < nextSweep) return;
+		if (!evictionLock.tryLock()) return;
+		try {
+			if (now >= nextSweep) {
+				long idleTime = idleTime();
+				if (idleTime > 0L) {
+					for (Iterator<Entry<V>> i = map.values().iterator(); i.hasNext(); ) {
+						if (now - i.next().accessed > idleTime) {
+							i.remove();
+							evictions.increment();
+						}
+					}
+					nextSweep = now + Math.max(idleTime / 2L, 1L);
+				} else {
+					nextSweep = now + DISABLED_SWEEP_INTERVAL;
+				}
+			}
+			while (map.size() > capacity && evictOne());
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private boolean evictOne() {
+		Map.Entry<K, Entry<V>> oldest = null;
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			if (sampler == null || !sampler.hasNext()) {
+				sampler = map.entrySet().iterator();
+				if (!sampler.hasNext()) break;
+			}
+			Map.Entry<K, Entry<V>> next = sampler.next();
+			if (oldest == null || next.getValue().accessed < oldest.getValue().accessed) oldest = next;
+		}
+		if (oldest == null) return false;
+		if (map.remove(oldest.getKey(), oldest.getValue())) evictions.increment();
+		return true;
+	}
+
+	// inner classes
+
+	private static final class Counter {
+
+		// a power of two
+		private static final int STRIPES = 16;
+		// spaces the cells to avoid false sharing
+		private static final int SPACING = 8;
+
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+		void increment() {
+			int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+			cells.getAndIncrement(stripe * SPACING);
+		}
+
+		long sum() {
+			long sum = 0L;
+			for (int i = 0; i < STRIPES; i++) {
+				sum += cells.get(i * SPACING);
+			}
+			return sum;
+		}
+
+	}
+
+	private static final class Entry<V> {
+
+		final V value;
+		volatile long accessed;
+
+		Entry(V value, long accessed) {
+			this.value = value;
+			this.accessed = accessed;
+		}
+
+		void touch(long now) {
+			if (accessed != now) accessed = now;
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+/**
+ * A snapshot of the statistics recorded by a cache maintained by a
+ * {@link TicketFactory}. The counts are accumulated over the lifetime of the
+ * factory. Because they are gathered from concurrently updated counters, the
+ * values in a snapshot may not be precisely consistent with each other.
+ *
+ * @author Tom Gibara
+ * @see TicketFactory#getTicketCacheStats()
+ */
+
+public final class TicketCacheStats {
+
+	// fields
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final int size;
+
+	// constructors
+
+	TicketCacheStats(long hitCount, long missCount, long evictionCount, int size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	// accessors
+
+	/**
+	 * The number of lookups which were satisfied by the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * The number of lookups which were not satisfied by the cache, including
+	 * those which found an expired entry.
+	 *
+	 * @return the number of cache misses
+	 */
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * The number of entries that have been removed from the cache, either to
+	 * respect its size limit or because they had expired.
+	 *
+	 * @return the number of evicted entries
+	 */
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * The approximate number of entries in the cache.
+	 *
+	 * @return the cache size
+	 */
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The proportion of lookups which were satisfied by the cache.
+	 *
+	 * @return the hit rate, between zero and one, or zero if no lookups have
+	 *         been made
+	 */
+
+	public double getHitRate() {
+		long total = hitCount + missCount;
+		return total == 0L ? 0.0 : (double) hitCount / total;
+	}
+
+	// object methods
+
+	@Override
+	public int hashCode() {
+		return (int) (hitCount ^ 31 * (missCount ^ 31 * evictionCount)) + size;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof TicketCacheStats)) return false;
+		TicketCacheStats that = (TicketCacheStats) obj;
+		return
+				this.hitCount == that.hitCount &&
+				this.missCount == that.missCount &&
+				this.evictionCount == that.evictionCount &&
+				this.size == that.size;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"hits: %d, misses: %d, evictions: %d, size: %d",
+				hitCount, missCount, evictionCount, size
+				);
+	}
+
+}
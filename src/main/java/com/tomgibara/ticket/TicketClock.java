@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+/**
+ * Supplies the time at which tickets are issued. Clocks may be assigned to
+ * factories to reduce the cost of reading the time, or to control the time for
+ * the purposes of testing and simulation.
+ * <p>
+ * Standard implementations are available from {@link TicketClocks}.
+ *
+ * @author Tom Gibara
+ * @see TicketFactory#setClock(TicketClock)
+ */
+
+public interface TicketClock {
+
+	/**
+	 * The current time, measured in the same way as
+	 * {@link System#currentTimeMillis()}. Note that this method may be called
+	 * concurrently by multiple threads.
+	 *
+	 * @return the current time in milliseconds since the epoch
+	 */
+
+	long millis();
+
+}
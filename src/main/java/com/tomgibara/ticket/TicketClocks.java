@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides standard {@link TicketClock} implementations.
+ *
+ * @author Tom Gibara
+ */
+
+public final class TicketClocks {
+
+	// statics
+
+	private static final TicketClock SYSTEM = new TicketClock() {
+		@Override
+		public long millis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	// the shortest period that is a whole number of minutes, since the
+	// timezone offsets with which origins are computed need not be whole hours
+	private static final long MAX_COARSE_PERIOD = Ticket.Granularity.MINUTE.toMillis(1L);
+
+	private static final ConcurrentMap<Long, Coarse> coarseClocks = new ConcurrentHashMap<Long, Coarse>();
+
+	/**
+	 * A clock that reports the system time. This is the clock used by ticket
+	 * factories unless another is assigned.
+	 *
+	 * @return the system clock
+	 */
+
+	public static TicketClock system() {
+		return SYSTEM;
+	}
+
+	/**
+	 * <p>
+	 * A clock that reports a cached time which is updated at the start of each
+	 * interval of the specified granularity by a background thread. Reading
+	 * this clock is cheaper than reading the system time, and suffices for
+	 * factories whose specifications are no finer than the granularity.
+	 * <p>
+	 * The updating thread is a daemon that is shared by all clocks of the same
+	 * granularity; it may be delayed by scheduling, so that tickets issued
+	 * immediately after an interval begins may record the previous interval.
+	 * Coarse clocks of hour granularity are updated every minute.
+	 *
+	 * @param granularity
+	 *            the granularity at which the time is updated
+	 * @return a coarse clock
+	 * @throws IllegalArgumentException
+	 *             if the granularity is null or
+	 *             {@link Ticket.Granularity#MILLISECOND}
+	 */
+
+	public static TicketClock coarse(Ticket.Granularity granularity) {
+		if (granularity == null) throw new IllegalArgumentException("null granularity");
+		if (granularity == Ticket.Granularity.MILLISECOND) throw new IllegalArgumentException("millisecond granularity");
+		Long period = Math.min(granularity.toMillis(1L), MAX_COARSE_PERIOD);
+		Coarse clock = coarseClocks.get(period);
+		if (clock != null) return clock;
+		synchronized (coarseClocks) {
+			clock = coarseClocks.get(period);
+			if (clock == null) {
+				clock = new Coarse(period, SYSTEM);
+				clock.start();
+				coarseClocks.put(period, clock);
+			}
+		}
+		return clock;
+	}
+
+	/**
+	 * A clock that only changes when it is explicitly modified, or by a fixed
+	 * step each time it is read. Such clocks are useful for testing,
+	 * benchmarking and simulations.
+	 *
+	 * @param millis
+	 *            the initial time reported by the clock
+	 * @param step
+	 *            the number of milliseconds by which the clock advances after
+	 *            each reading, may be zero
+	 * @return a deterministic clock
+	 */
+
+	public static Deterministic deterministic(long millis, long step) {
+		if (step < 0L) throw new IllegalArgumentException("negative step");
+		return new Deterministic(millis, step);
+	}
+
+	// constructors
+
+	private TicketClocks() { }
+
+	// inner classes
+
+	/**
+	 * A clock that is advanced explicitly, or by a fixed step on each reading.
+	 *
+	 * @author Tom Gibara
+	 * @see TicketClocks#deterministic(long, long)
+	 */
+
+	public static final class Deterministic implements TicketClock {
+
+		private final AtomicLong millis;
+		private final long step;
+
+		private Deterministic(long millis, long step) {
+			this.millis = new AtomicLong(millis);
+			this.step = step;
+		}
+
+		/**
+		 * The number of milliseconds by which the clock advances on each
+		 * reading.
+		 *
+		 * @return the step, possibly zero
+		 */
+
+		public long getStep() {
+			return step;
+		}
+
+		/**
+		 * The time that will be reported by the next reading of the clock.
+		 *
+		 * @return the time in milliseconds
+		 */
+
+		public long getMillis() {
+			return millis.get();
+		}
+
+		/**
+		 * Sets the time that will be reported by the next reading of the
+		 * clock.
+		 *
+		 * @param millis
+		 *            the time in milliseconds
+		 */
+
+		public void setMillis(long millis) {
+			this.millis.set(millis);
+		}
+
+		/**
+		 * Advances the clock.
+		 *
+		 * @param millis
+		 *            the number of milliseconds by which the clock is advanced
+		 */
+
+		public void advance(long millis) {
+			this.millis.addAndGet(millis);
+		}
+
+		@Override
+		public long millis() {
+			return step == 0L ? millis.get() : millis.getAndAdd(step);
+		}
+
+	}
+
+	// package scoped so that updates can be tested against a deterministic source
+	static final class Coarse implements TicketClock, Runnable {
+
+		final long period;
+		private final TicketClock source;
+		private volatile long millis;
+
+		Coarse(long period, TicketClock source) {
+			this.period = period;
+			this.source = source;
+			millis = source.millis();
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long delay = update();
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					/* daemon thread is never interrupted, continue */
+				}
+			}
+		}
+
+		// records the source time and returns the delay until the start of the next period
+		long update() {
+			long now = source.millis();
+			millis = now;
+			return period - now % period;
+		}
+
+		void start() {
+			Thread thread = new Thread(this, "ticket-clock-" + period);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+	}
+
+}
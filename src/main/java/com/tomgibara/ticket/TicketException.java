@@ -17,7 +17,8 @@
 package com.tomgibara.ticket;
 
 /**
- * Instances of this class are thrown when a ticket cannot be decoded.
+ * Instances of this class are thrown when a ticket cannot be decoded. The
+ * reason for the failure is available from {@link #getReason()}.
  *
  * @author Tom Gibara
  * @see TicketFactory#decodeTicket(String)
@@ -27,20 +28,109 @@ public class TicketException extends RuntimeException {
 
 	private static final long serialVersionUID = -504476966169351063L;
 
+	/**
+	 * Classifies the causes of ticket exceptions.
+	 */
+
+	public enum Reason {
+
+		/**
+		 * The ticket contained a character that was not printable ASCII.
+		 */
+		CHARACTER,
+
+		/**
+		 * The ticket exceeded the character limit of the factory's policy.
+		 */
+		LENGTH,
+
+		/**
+		 * The ticket was encoded with an unsupported version.
+		 */
+		VERSION,
+
+		/**
+		 * The ticket specification was not known to the factory.
+		 */
+		SPECIFICATION,
+
+		/**
+		 * The ticket bits could not be read.
+		 */
+		MALFORMED,
+
+		/**
+		 * The secret bits of the ticket were invalid.
+		 */
+		SECRET,
+
+		/**
+		 * The ticket hash did not match its contents.
+		 */
+		HASH,
+
+		/**
+		 * The ticket was not padded correctly.
+		 */
+		PADDING,
+
+		/**
+		 * A sequence number could not be obtained for a new ticket.
+		 */
+		SEQUENCE,
+
+		/**
+		 * The timestamp of a new ticket could not be recorded by its
+		 * specification.
+		 */
+		TIMESTAMP,
+
+		/**
+		 * Any other reason.
+		 */
+		OTHER;
+
+	}
+
+	private final Reason reason;
+
 	TicketException() {
 		super();
+		reason = Reason.OTHER;
 	}
 
 	TicketException(String message, Throwable cause) {
-		super(message, cause);
+		this(Reason.OTHER, message, cause);
 	}
 
 	TicketException(String message) {
-		super(message);
+		this(Reason.OTHER, message);
 	}
 
 	TicketException(Throwable cause) {
 		super(cause);
+		reason = Reason.OTHER;
+	}
+
+	TicketException(Reason reason, String message, Throwable cause) {
+		super(message, cause);
+		this.reason = reason;
+	}
+
+	TicketException(Reason reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * The reason for which the exception was raised.
+	 *
+	 * @return the reason, never null
+	 */
+
+	public Reason getReason() {
+		// exceptions serialized before reasons were recorded have none
+		return reason == null ? Reason.OTHER : reason;
 	}
 
 }
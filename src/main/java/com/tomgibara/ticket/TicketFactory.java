@@ -18,16 +18,26 @@ package com.tomgibara.ticket;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.tomgibara.bits.BitReader;
 import com.tomgibara.bits.BitStreamException;
 import com.tomgibara.bits.BitVector;
 import com.tomgibara.bits.BitVectorWriter;
+import com.tomgibara.bits.BitWriter;
 import com.tomgibara.coding.CodedReader;
 import com.tomgibara.coding.CodedWriter;
 import com.tomgibara.coding.EliasOmegaCoding;
@@ -70,6 +80,12 @@ public class TicketFactory<R, D> {
 
 	private static final TicketPolicy sDefaultPolicy = new DefaultTicketPolicy();
 
+	// bulk decodes are split into this many chunks for each thread of the pool
+	private static final int BULK_CHUNKS_PER_THREAD = 4;
+
+	// the number of strings per thread read from iterators for each bulk decode
+	private static final int BULK_BATCH_SIZE = 4096;
+
 	// note, not configurable because we don't want to expose "bits" level abstractions
 	// there is probably very little benefit in exposing this anyway
 	static final ExtendedCoding CODING = EliasOmegaCoding.extended;
@@ -81,6 +97,9 @@ public class TicketFactory<R, D> {
 	// determines the maximum size in bits of any hash that this package can support
 	static final int DIGEST_SIZE = 224;
 
+	// the maximum number of secret bits, 64 bits of the digest are reserved for the nonce
+	static final int SECRET_LIMIT = DIGEST_SIZE - 64;
+
 	//TODO consider optimizing further
 	// eg. same secrets get same digest, or no hash length means skip digest creation
 	private static KeccakDigest[] createDigests(TicketSpec[] specs, byte[]... secrets) {
@@ -114,12 +133,26 @@ public class TicketFactory<R, D> {
 
 	volatile TicketFormat format = TicketFormat.DEFAULT;
 	volatile TicketPolicy policy = sDefaultPolicy;
+	volatile TicketClock clock = TicketClocks.system();
+	volatile TicketListener listener = null;
 
 	// fields for canonicalizing bases
 	private final ReferenceQueue<TicketMachine<R, D>> machineQueue = new ReferenceQueue<TicketMachine<R,D>>();
-	private final Map<TicketBasis<R>, MachineRef<R,D>> machines = new HashMap<TicketBasis<R>, MachineRef<R,D>>();
+	// read without locking, but only modified while synchronized on the map
+	private final ConcurrentMap<TicketBasis<R>, MachineRef<R,D>> machines = new ConcurrentHashMap<TicketBasis<R>, MachineRef<R,D>>();
 
-	private final MachineMap machinesCache = new MachineMap();
+	private final MachineCache machinesCache = new MachineCache();
+
+	// previously decoded tickets, keyed by string
+	private final DecodedCache ticketCache = new DecodedCache();
+
+	// reusable digests, restored from the keyed digests above before each use
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
 
 	TicketFactory(TicketConfig<R,D> config, TicketSequences<R> sequences, byte[]... secrets) {
 		this.config = config;
@@ -193,6 +226,69 @@ public class TicketFactory<R, D> {
 		return format;
 	}
 
+	/**
+	 * Specifies the clock from which the timestamps of new tickets are
+	 * obtained. The clock may be changed at any time. If a null clock is
+	 * supplied, the factory reverts to the system clock.
+	 *
+	 * @param clock
+	 *            the clock to use, or null
+	 * @see TicketClocks
+	 */
+
+	public void setClock(TicketClock clock) {
+		this.clock = clock == null ? TicketClocks.system() : clock;
+	}
+
+	/**
+	 * The clock currently used to timestamp the tickets created by the
+	 * factory. If the {@link #setClock(TicketClock)} method has not previously
+	 * been called, this will be {@link TicketClocks#system()}.
+	 *
+	 * @return the clock used by this factory, never null
+	 */
+
+	public TicketClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Specifies a listener that is notified of the tickets issued and decoded
+	 * by the factory. The listener may be changed at any time.
+	 *
+	 * @param listener
+	 *            the listener to notify, or null to stop notifications
+	 * @see TicketMetrics
+	 */
+
+	public void setListener(TicketListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * The listener currently notified of the tickets issued and decoded by the
+	 * factory.
+	 *
+	 * @return the listener, or null if there is none
+	 */
+
+	public TicketListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Statistics for the cache of decoded tickets maintained by this factory.
+	 * The cache is only used if the factory's policy specifies a positive
+	 * ticket cache size, and the origin and data types have no array fields.
+	 *
+	 * @return a snapshot of the ticket cache statistics
+	 * @see DefaultTicketPolicy#getTicketCacheSize()
+	 */
+
+	public TicketCacheStats getTicketCacheStats() {
+		return ticketCache.getStats();
+	}
+
 	// methods
 
 	/**
@@ -257,135 +353,537 @@ public class TicketFactory<R, D> {
 	 */
 
 	public Ticket<R, D> decodeTicket(String str) throws TicketException {
-		// validate parameters
+		return decodeImpl(str, false);
+	}
+
+	/**
+	 * Decodes a ticket from a sequence of characters. This method avoids the
+	 * need to create a string when the characters of a ticket are held in some
+	 * other form, for example, in a <code>StringBuilder</code>. Tickets
+	 * decoded from sequences that are not strings are not cached by the
+	 * factory, and their {@link Ticket#toString()} method will return a
+	 * string in the format of this factory.
+	 *
+	 * @param chars
+	 *            the characters to be decoded
+	 * @return a ticket
+	 * @throws IllegalArgumentException
+	 *             if the supplied sequence is null or empty
+	 * @throws TicketException
+	 *             if the characters did not specify a valid ticket
+	 * @see #decodeTicket(String)
+	 */
+
+	public Ticket<R, D> decodeTicket(CharSequence chars) throws TicketException {
+		return decodeImpl(chars, false);
+	}
+
+	/**
+	 * Decodes a ticket from a range of characters in an array. The array is
+	 * neither copied nor modified. Decoding is otherwise identical to
+	 * {@link #decodeTicket(CharSequence)}.
+	 *
+	 * @param chars
+	 *            an array containing the characters to be decoded
+	 * @param offset
+	 *            the index of the first ticket character in the array
+	 * @param length
+	 *            the number of ticket characters
+	 * @return a ticket
+	 * @throws IllegalArgumentException
+	 *             if the array is null, or the range is empty or does not lie
+	 *             within the array
+	 * @throws TicketException
+	 *             if the characters did not specify a valid ticket
+	 */
+
+	public Ticket<R, D> decodeTicket(char[] chars, int offset, int length) throws TicketException {
+		if (chars == null) throw new IllegalArgumentException("null chars");
+		checkRange(offset, length, chars.length);
+		return decodeImpl(CharBuffer.wrap(chars, offset, length), false);
+	}
+
+	/**
+	 * Decodes a ticket from a range of ASCII encoded bytes in a buffer. Both
+	 * heap and direct buffers are supported. The bytes are read at absolute
+	 * indices, so the position and limit of the buffer are ignored and
+	 * unchanged. Decoding is otherwise identical to
+	 * {@link #decodeTicket(CharSequence)}.
+	 *
+	 * @param bytes
+	 *            a buffer containing the ASCII characters to be decoded
+	 * @param offset
+	 *            the index of the first ticket byte in the buffer
+	 * @param length
+	 *            the number of ticket bytes
+	 * @return a ticket
+	 * @throws IllegalArgumentException
+	 *             if the buffer is null, or the range is empty or does not lie
+	 *             within the capacity of the buffer
+	 * @throws TicketException
+	 *             if the bytes did not specify a valid ticket
+	 */
+
+	public Ticket<R, D> decodeTicket(ByteBuffer bytes, int offset, int length) throws TicketException {
+		if (bytes == null) throw new IllegalArgumentException("null bytes");
+		checkRange(offset, length, bytes.capacity());
+		return decodeImpl(TicketFormat.ascii(bytes, offset, length), false);
+	}
+
+	/**
+	 * Decodes a ticket in the same way as {@link #decodeTicket(String)}, but
+	 * defers the construction of the ticket's origin and data until either is
+	 * first accessed. The structure of the ticket and its hash are fully
+	 * validated by this method, but any secret fields are not decrypted until
+	 * they are needed. This makes it cheaper to decode tickets for which only
+	 * the timestamp or sequence number will be examined.
+	 * <p>
+	 * Note that for specifications without a hash, corruption of the secret
+	 * fields may only be detected when the origin or data are accessed, in
+	 * which case those methods will raise a {@link TicketException}.
+	 *
+	 * @param str
+	 *            the string to be decoded
+	 * @return a ticket
+	 * @throws IllegalArgumentException
+	 *             if the supplied string is null or empty
+	 * @throws TicketException
+	 *             if the string did not specify a valid ticket
+	 * @see Ticket#getOrigin()
+	 * @see Ticket#getData()
+	 */
+
+	public Ticket<R, D> decodeTicketLazily(String str) throws TicketException {
+		return decodeImpl(str, true);
+	}
+
+	/**
+	 * Checks whether the supplied string is a valid ticket for this factory.
+	 * The structure, hash and padding of the ticket are validated as per
+	 * {@link #decodeTicket(String)} but without constructing the ticket, its
+	 * origin or its data. Invalid tickets are reported by returning false
+	 * rather than by raising an exception.
+	 * <p>
+	 * Secret fields are not decrypted by this method. For specifications
+	 * without a hash, this means that a ticket with corrupted secret fields
+	 * may be reported as valid even though it cannot be decoded.
+	 *
+	 * @param str
+	 *            a possible ticket string
+	 * @return true if the string could be decoded into a ticket, false
+	 *         otherwise
+	 * @throws IllegalArgumentException
+	 *             if the supplied string is null
+	 */
+
+	public boolean isValid(CharSequence str) {
 		if (str == null) throw new IllegalArgumentException("null str");
+		return validSpecNumber(str) >= 0;
+	}
+
+	/**
+	 * Decodes a list of ticket strings in parallel using the supplied pool.
+	 * The strings are divided into a small number of chunks per thread of the
+	 * pool, each of which is decoded sequentially. Failure to decode any one
+	 * string does not prevent the decoding of the others; a result is returned
+	 * for every string, recording either the decoded ticket or the reason
+	 * decoding failed.
+	 *
+	 * @param strs
+	 *            the strings to be decoded
+	 * @param pool
+	 *            the pool on which decoding is performed
+	 * @return a result for each string in the order supplied
+	 * @throws IllegalArgumentException
+	 *             if the list or pool is null
+	 * @see #decodeTicket(String)
+	 */
+
+	public List<TicketResult<R, D>> decodeTickets(List<String> strs, ForkJoinPool pool) {
+		if (strs == null) throw new IllegalArgumentException("null strs");
+		if (pool == null) throw new IllegalArgumentException("null pool");
+		return decodeAll(strs.toArray(new String[strs.size()]), pool);
+	}
+
+	/**
+	 * Decodes an array of ticket strings in parallel using the supplied pool.
+	 * This method behaves identically to
+	 * {@link #decodeTickets(List, ForkJoinPool)}.
+	 *
+	 * @param strs
+	 *            the strings to be decoded
+	 * @param pool
+	 *            the pool on which decoding is performed
+	 * @return a result for each string in the order supplied
+	 * @throws IllegalArgumentException
+	 *             if the array or pool is null
+	 */
+
+	public List<TicketResult<R, D>> decodeTickets(String[] strs, ForkJoinPool pool) {
+		if (strs == null) throw new IllegalArgumentException("null strs");
+		if (pool == null) throw new IllegalArgumentException("null pool");
+		return decodeAll(strs.clone(), pool);
+	}
+
+	/**
+	 * Decodes ticket strings supplied by an iterator in parallel using the
+	 * supplied pool. This allows very large numbers of tickets to be decoded
+	 * without retaining them all in memory. The strings are read from the
+	 * iterator on demand, in batches which are decoded as per
+	 * {@link #decodeTickets(List, ForkJoinPool)}. The supplied iterator is
+	 * only accessed by the thread which calls the returned iterator.
+	 *
+	 * @param strs
+	 *            supplies the strings to be decoded
+	 * @param pool
+	 *            the pool on which decoding is performed
+	 * @return an iterator over a result for each string, in the order
+	 *         supplied
+	 * @throws IllegalArgumentException
+	 *             if the iterator or pool is null
+	 */
+
+	public Iterator<TicketResult<R, D>> decodeTickets(final Iterator<String> strs, final ForkJoinPool pool) {
+		if (strs == null) throw new IllegalArgumentException("null strs");
+		if (pool == null) throw new IllegalArgumentException("null pool");
+		return new Iterator<TicketResult<R,D>>() {
+
+			private final String[] batch = new String[BULK_BATCH_SIZE * pool.getParallelism()];
+			private List<TicketResult<R,D>> results = Collections.emptyList();
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < results.size() || strs.hasNext();
+			}
+
+			@Override
+			public TicketResult<R, D> next() {
+				if (index == results.size()) {
+					int count = 0;
+					while (count < batch.length && strs.hasNext()) {
+						batch[count++] = strs.next();
+					}
+					if (count == 0) throw new NoSuchElementException();
+					results = decodeAll(Arrays.copyOf(batch, count), pool);
+					index = 0;
+				}
+				return results.get(index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	// package methods
+
+	// the specification number of a valid ticket string, or -1 if the string is not valid
+	int validSpecNumber(CharSequence str) {
 		int length = str.length();
-		if (length == 0) throw new IllegalArgumentException("empty str");
-		// decode string to bits
-		BitVector bits = format.decode(str, policy.getTicketCharLimit());
+		if (length == 0) return -1;
+		TicketPolicy policy = this.policy;
+		int charLimit = policy.getTicketCharLimit();
+		if (str instanceof String && length <= charLimit && ticketCache.capacity() > 0) {
+			Ticket<R, D> ticket = ticketCache.get((String) str);
+			if (ticket != null) return specNumber(ticket.getSpecification());
+		}
+		BitVector bits = format.decodeOrNull(str, charLimit);
+		if (bits == null) return -1;
+		int size = bits.size();
+		try {
+			BitReader reader = bits.openReader();
+			CodedReader r = new CodedReader(reader, CODING);
+			if (r.readPositiveInt() != VERSION) return -1;
+			int number = r.readPositiveInt();
+			if (number > primarySpecIndex) return -1;
+			TicketSpec spec = specs[number];
+			spec.readTimestamp(r);
+			spec.readSequenceNumber(r);
+			if (!config.originAdapter.skip(r, false)) return -1;
+			if (!config.dataAdapter.skip(r, false)) return -1;
+			int sLength = r.readPositiveInt();
+			if (sLength > SECRET_LIMIT) return -1;
+			// secret bits are skipped without decryption
+			for (int remaining = sLength; remaining > 0; remaining -= 64) {
+				reader.readLong(Math.min(remaining, 64));
+			}
+			int position = (int) reader.getPosition();
+			int hashSize = spec.getHashLength();
+			if (hashSize > 0) {
+				if (position + hashSize > size) return -1;
+				BitVector expectedHash = spec.hash(keyedDigest(number), bits.rangeView(size - position, size));
+				// compare up to 64 bits at a time
+				BitReader expected = expectedHash.openReader();
+				for (int remaining = hashSize; remaining > 0; remaining -= 64) {
+					int count = Math.min(remaining, 64);
+					if (reader.readLong(count) != expected.readLong(count)) return -1;
+				}
+				position += hashSize;
+			}
+			// check for valid padding
+			int padding = size - position;
+			if (padding != TicketAlphabet.of(str).padding(position)) return -1;
+			if (padding > 0 && reader.readLong(padding) != 0L) return -1;
+			return number;
+		} catch (BitStreamException e) {
+			return -1;
+		}
+	}
+
+	// the number of a specification used by this factory
+	int specNumber(TicketSpec spec) {
+		for (int i = 0; i < specs.length; i++) {
+			if (specs[i] == spec) return i;
+		}
+		throw new IllegalArgumentException("unknown spec");
+	}
+
+	// the returned digest is only valid until the next call on the same thread
+	KeccakDigest keyedDigest(int specNumber) {
+		KeccakDigest digest = scratch.get().digest;
+		digest.restore(digests[specNumber]);
+		return digest;
+	}
+
+	// working state for the current thread
+	Scratch scratch() {
+		return scratch.get();
+	}
+
+	// digests the bits as a big-endian number
+	// the returned bytes are only valid until the next call on the same thread
+	byte[] digest(int specNumber, LongBitWriter bits) {
+		Scratch s = scratch.get();
+		KeccakDigest digest = s.digest;
+		digest.restore(digests[specNumber]);
+		digest.update(bits.toByteArray(), 0, bits.byteLength());
+		digest.doFinal(s.out, 0);
+		return s.out;
+	}
+
+	void checkSecretLength(int sLength) {
+		if (sLength > SECRET_LIMIT) throw new TicketException(TicketException.Reason.SECRET, "secret data too large");
+	}
+
+	void recordMachineAccess(TicketMachine<R,D> machine) {
+		machinesCache.touch(machine.getBasis(), machine);
+	}
+
+	// private helper methods
+
+	private static void checkRange(int offset, int length, int capacity) {
+		if (offset < 0) throw new IllegalArgumentException("negative offset");
+		if (length < 0) throw new IllegalArgumentException("negative length");
+		if (offset > capacity - length) throw new IllegalArgumentException("range exceeds capacity");
+	}
+
+	private List<TicketResult<R, D>> decodeAll(String[] strs, ForkJoinPool pool) {
+		@SuppressWarnings("unchecked")
+		TicketResult<R, D>[] results = new TicketResult[strs.length];
+		int chunkSize = strs.length / (pool.getParallelism() * BULK_CHUNKS_PER_THREAD) + 1;
+		pool.invoke(new DecodeTask(strs, results, 0, strs.length, chunkSize));
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+	private TicketResult<R, D> result(String str) {
+		if (str == null) return new TicketResult<R, D>(str, new TicketException("null ticket string"));
+		if (str.isEmpty()) return new TicketResult<R, D>(str, new TicketException("empty ticket string"));
+		try {
+			return new TicketResult<R, D>(str, decodeImpl(str, false));
+		} catch (TicketException e) {
+			return new TicketResult<R, D>(str, e);
+		}
+	}
+
+	private Ticket<R, D> decodeImpl(CharSequence chars, boolean lazily) throws TicketException {
+		// validate parameters
+		if (chars == null) throw new IllegalArgumentException("null str");
+		if (chars.length() == 0) throw new IllegalArgumentException("empty str");
+		TicketListener listener = this.listener;
+		if (listener == null) return decodeChars(chars, lazily);
+		Ticket<R, D> ticket;
+		try {
+			ticket = decodeChars(chars, lazily);
+		} catch (TicketException e) {
+			listener.ticketRejected(e.getReason());
+			throw e;
+		}
+		listener.ticketDecoded(specNumber(ticket.getSpecification()));
+		return ticket;
+	}
+
+	private Ticket<R, D> decodeChars(CharSequence chars, boolean lazily) throws TicketException {
+		int length = chars.length();
+		TicketPolicy policy = this.policy;
+		TicketFormat format = this.format;
+		int charLimit = policy.getTicketCharLimit();
+		// only strings are cached, other character sequences may be mutable
+		String str = chars instanceof String ? (String) chars : null;
+		if (str == null || ticketCache.capacity() <= 0) return decodeImpl(str, format.decode(chars, charLimit), TicketAlphabet.of(chars), format, lazily);
+		// the length is checked so that a reduced limit also applies to cached tickets
+		if (length <= charLimit) {
+			Ticket<R, D> ticket = ticketCache.get(str);
+			if (ticket != null) {
+				// a ticket cached by a lazy decode must be fully decoded for an eager caller
+				if (!lazily) ticket.resolve();
+				return ticket;
+			}
+		}
+		Ticket<R, D> ticket = decodeImpl(str, format.decode(str, charLimit), TicketAlphabet.of(str), format, lazily);
+		if (!ticketCache.expired(ticket)) ticketCache.put(str, ticket);
+		return ticket;
+	}
+
+	// str may be null if the ticket was not decoded from a string
+	private Ticket<R, D> decodeImpl(String str, BitVector bits, TicketAlphabet alphabet, TicketFormat format, boolean lazily) throws TicketException {
 		int size = bits.size();
 		// read ticket data
 		TicketSpec spec;
 		long timestamp;
-		int seq;
-		R origin;
-		D data;
+		long seq;
 		try {
 			BitReader reader = bits.openReader();
 			CodedReader r = new CodedReader(reader, CODING);
 			int version = r.readPositiveInt();
-			if (version != VERSION) throw new TicketException("Ticket version does not match version supported by factory.");
+			if (version != VERSION) throw new TicketException(TicketException.Reason.VERSION, "Ticket version does not match version supported by factory.");
 			int number = r.readPositiveInt();
-			if (number > primarySpecIndex) throw new TicketException("Unsupported ticket specification.");
+			if (number > primarySpecIndex) throw new TicketException(TicketException.Reason.SPECIFICATION, "Unsupported ticket specification.");
 			spec = specs[number];
-			timestamp = r.readLong();
-			seq = r.readPositiveInt();
+			timestamp = spec.readTimestamp(r);
+			seq = spec.readSequenceNumber(r);
 			TicketAdapter<R> originAdapter = config.originAdapter;
 			TicketAdapter<D> dataAdapter = config.dataAdapter;
-			Object[] originValues = originAdapter.unadapt(null);
-			Object[] dataValues = dataAdapter.unadapt(null);
-			originAdapter.read(r, false, originValues);
-			dataAdapter.read(r, false, dataValues);
+			int oPosition = (int) reader.getPosition();
+			Object[] originValues;
+			Object[] dataValues;
+			if (lazily) {
+				originValues = null;
+				dataValues = null;
+				if (!originAdapter.skip(r, false) || !dataAdapter.skip(r, false)) {
+					throw new TicketException(TicketException.Reason.MALFORMED, "Too many data fields");
+				}
+			} else {
+				originValues = originAdapter.unadapt(null);
+				dataValues = dataAdapter.unadapt(null);
+				originAdapter.read(r, false, originValues);
+				dataAdapter.read(r, false, dataValues);
+			}
 			int sPosition = (int) reader.getPosition();
 			int sLength = r.readPositiveInt();
+			int sStart = (int) reader.getPosition();
 			if (sLength > 0) {
-				// digest the prefix
-				BitVector digestBits = bits.rangeView(size - sPosition, size);
-				byte[] digest = digest(number, digestBits.toByteArray());
-				// retrieve the secure bits
-				BitVector sBits = new BitVector(sLength);
-				sBits.readFrom(reader);
-				// xor the digest with the secure bits and read
+				// skip the secure bits, they are decrypted once the ticket has been validated
 				checkSecretLength(sLength);
-				sBits.xorVector(BitVector.fromByteArray(digest, sLength));
-				BitReader sReader = sBits.openReader();
-				CodedReader sR = new CodedReader(sReader, CODING);
-				originAdapter.read(sR, true, originValues);
-				dataAdapter.read(sR, true, dataValues);
-				sR.readPositiveLong(); // read the nonce
-				// sBits should be exhausted
-				if ((int) sReader.getPosition() != sLength) {
-					throw new TicketException("Extra secure bits");
+				for (int remaining = sLength; remaining > 0; remaining -= 64) {
+					reader.readLong(Math.min(remaining, 64));
 				}
 			}
-			origin = originAdapter.adapt(originValues);
-			data = dataAdapter.adapt(dataValues);
 			// check for valid hash
 			int position = (int) reader.getPosition();
-			BitVector expectedHash = spec.hash(digests[number], bits.rangeView(size - position, size));
-			int hashSize = expectedHash.size();
+			int hashSize = spec.getHashLength();
 			if (hashSize > 0) {
+				BitVector expectedHash = spec.hash(keyedDigest(number), bits.rangeView(size - position, size));
 				BitVector actualHash = new BitVector(hashSize);
 				actualHash.readFrom(reader);
 				if (!actualHash.equals(expectedHash)) {
-					throw new TicketException("Ticket hash invalid");
+					throw new TicketException(TicketException.Reason.HASH, "Ticket hash invalid");
 				}
 			}
 			// check for valid padding
 			position = (int) reader.getPosition();
-			if (position - size > 4) throw new TicketException("Ticket contains superfluous bits.");
+			int padding = size - position;
+			if (padding != alphabet.padding(position)) throw new TicketException(TicketException.Reason.PADDING, "Ticket contains superfluous bits.");
 			while (position < size) {
-				if (reader.readBoolean()) throw new TicketException("Ticket has non-zero padding bit.");
+				if (reader.readBoolean()) throw new TicketException(TicketException.Reason.PADDING, "Ticket has non-zero padding bit.");
 				position ++;
 			}
+			// the padding is not retained, so that tickets are independent of their alphabet
+			BitVector unpadded = padding == 0 ? bits : bits.rangeView(padding, size);
+			if (lazily) {
+				LazyContents contents = new LazyContents(number, unpadded, oPosition, sPosition, sStart, sLength);
+				return new Ticket<R, D>(spec, unpadded, timestamp, seq, contents, format, str);
+			}
+			if (sLength > 0) readSecret(number, unpadded, sPosition, sStart, sLength, originValues, dataValues);
+			R origin = originAdapter.adapt(originValues);
+			D data = dataAdapter.adapt(dataValues);
+			return new Ticket<R, D>(spec, unpadded, timestamp, seq, origin, data, format, str);
 		} catch (BitStreamException e) {
-			throw new TicketException("Invalid ticket bits", e);
+			throw new TicketException(TicketException.Reason.MALFORMED, "Invalid ticket bits", e);
 		}
-		return new Ticket<R, D>(spec, bits, timestamp, seq, origin, data, str);
 	}
 
-	// package methods
-
-	byte[] digest(int specNumber, byte[] bytes) {
-		KeccakDigest digest = new KeccakDigest(digests[specNumber]);
-		digest.update(bytes, 0, bytes.length);
-		byte[] out = new byte[digest.getDigestSize()];
-		digest.doFinal(out, 0);
-		return out;
-	}
-
-	void checkSecretLength(int sLength) {
-		if (sLength > TicketFactory.DIGEST_SIZE - 64) throw new TicketException("secret data too large");
-	}
-
-	void recordMachineAccess(TicketMachine<R,D> machine) {
-		if (policy.getMachineCacheSize() <= 0) return;
-		TicketBasis<R> basis = machine.getBasis();
-		synchronized (machinesCache) {
-			TicketMachine<R,D> cached = machinesCache.get(basis);
-			if (cached != machine) machinesCache.put(basis, machine);
+	// decrypts the secure bits and reads the secret field values they contain
+	private void readSecret(int number, BitVector bits, int sPosition, int sStart, int sLength, Object[] originValues, Object[] dataValues) throws TicketException {
+		Scratch s = scratch.get();
+		// digest the prefix
+		BitReader reader = bits.openReader();
+		LongBitWriter prefix = s.bits;
+		prefix.reset();
+		prefix.readFrom(reader, sPosition);
+		byte[] digest = digest(number, prefix);
+		// xor the digest with the secure bits into the scratch vector and read
+		for (int remaining = sStart - sPosition; remaining > 0; remaining -= 64) {
+			reader.readLong(Math.min(remaining, 64));
+		}
+		BitWriter sWriter = s.secretBits.openWriter();
+		for (int remaining = sLength; remaining > 0; remaining -= 64) {
+			int count = Math.min(remaining, 64);
+			sWriter.write(reader.readLong(count) ^ LongBitWriter.bits(digest, remaining - count, count), count);
+		}
+		BitReader sReader = s.secretBits.openReader();
+		CodedReader sR = new CodedReader(sReader, CODING);
+		config.originAdapter.read(sR, true, originValues);
+		config.dataAdapter.read(sR, true, dataValues);
+		sR.readPositiveLong(); // read the nonce
+		// the secure bits should be exactly exhausted, bits beyond them are left over from earlier tickets
+		int position = (int) sReader.getPosition();
+		if (position > sLength) {
+			throw new TicketException(TicketException.Reason.MALFORMED, "Invalid ticket bits");
+		}
+		if (position < sLength) {
+			throw new TicketException(TicketException.Reason.SECRET, "Extra secure bits");
 		}
 	}
 
-	// private helper methods
-
-	@SuppressWarnings("unchecked")
 	private TicketMachine<R, D> machineImpl(Object... values) {
-		TicketMachine<R,D> machine;
+		TicketBasis<R> basis = newBasis(primarySpecIndex, values);
+		// check for existing machine instance
+		MachineRef<R,D> ref = machines.get(basis);
+		TicketMachine<R,D> machine = ref == null ? null : ref.get();
+		// record a new canonical instance if necessary
+		if (machine == null) machine = registerMachine(basis);
+		// cache a strong ref if desired
+		machinesCache.touch(machine.getBasis(), machine);
+		// finally return the machine
+		return machine;
+	}
+
+	// machines are created under a lock so that only one sequence is obtained per basis
+	private TicketMachine<R, D> registerMachine(TicketBasis<R> basis) {
 		synchronized (machines) {
-			// clean up stale machines
-			while (true) {
-				MachineRef<R,D> ref = (MachineRef<R,D>) machineQueue.poll();
-				if (ref == null) break;
-				machines.remove(ref.key);
-			}
-			// check for existing machine instance
-			TicketBasis<R> basis = newBasis(primarySpecIndex, values);
+			expungeStaleMachines();
 			MachineRef<R,D> ref = machines.get(basis);
-			machine = ref == null ? null : ref.get();
-			// record a new canonical instance if necessary
+			TicketMachine<R,D> machine = ref == null ? null : ref.get();
 			if (machine == null) {
 				machine = new TicketMachine<R, D>(this, basis);
-				ref = new MachineRef<R, D>(machine, machineQueue);
-				machines.put(ref.key, ref);
+				machines.put(basis, new MachineRef<R, D>(machine, machineQueue));
 			}
+			return machine;
 		}
-		// cache a strong ref if desired
-		if (policy.getMachineCacheSize() > 0) synchronized (machinesCache) {
-			machinesCache.put(machine.getBasis(), machine);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expungeStaleMachines() {
+		while (true) {
+			MachineRef<R,D> ref = (MachineRef<R,D>) machineQueue.poll();
+			if (ref == null) break;
+			// the basis may have been assigned a new machine in the meantime
+			machines.remove(ref.key, ref);
 		}
-		// finally return the machine
-		return machine;
 	}
 
 	private TicketBasis<R> newBasis(int specNumber, Object... values) {
@@ -413,26 +911,195 @@ public class TicketFactory<R, D> {
 
 	}
 
-	private static class Sequence implements TicketSequence {
+	// numbers are issued from the current tick until a later timestamp seals it
+	static final class Sequence implements TicketRangeSequence {
 
-		// the timestamp for which the number sequence is increasing
-		private long timestamp = -1L;
-		// set to the next sequence number
-		private long number = 0L;
+		// sequence numbers must remain below this limit
+		private static final long LIMIT = 1L << 61;
+		// added to the counter of a tick to prevent it issuing further numbers
+		private static final long SEAL = 1L << 62;
 
-		@Override
-		public synchronized long nextSequenceNumber(long timestamp) {
-			if (this.timestamp > timestamp) {
-				number = 0;
+		private static final class Tick {
+
+			final long timestamp;
+			final AtomicLong counter = new AtomicLong();
+
+			Tick(long timestamp) {
 				this.timestamp = timestamp;
-			} else if (number == Long.MIN_VALUE) {
-				throw new TicketException("Sequence numbers exhausted");
 			}
-			return number ++;
+
+			// prevents further numbers being issued and returns the number issued
+			long seal() {
+				long count;
+				do {
+					count = counter.get();
+					if (count >= SEAL) break;
+				} while (!counter.compareAndSet(count, count | SEAL));
+				return Math.min(count & ~SEAL, LIMIT);
+			}
+
+		}
+
+		// the latest timestamp observed and its numbering
+		private final AtomicReference<Tick> tick = new AtomicReference<Tick>(new Tick(Long.MIN_VALUE));
+		// at least as large as any number issued by a sealed tick, numbers
+		// for timestamps that precede the current tick are drawn from here
+		private final AtomicLong floor = new AtomicLong();
+
+		@Override
+		public long nextSequenceNumber(long timestamp) {
+			return nextSequenceNumbers(timestamp, 1);
+		}
+
+		@Override
+		public long nextSequenceNumbers(long timestamp, int count) {
+			while (true) {
+				Tick t = tick.get();
+				if (timestamp == t.timestamp) {
+					long first = t.counter.getAndAdd(count);
+					if (first < SEAL) return checked(first, count);
+					// the tick has been superseded, so the timestamp has regressed
+					raiseFloor(t.seal());
+					return checked(floor.getAndAdd(count), count);
+				}
+				if (timestamp < t.timestamp) {
+					// clock has regressed, earlier ticks were sealed before t was set
+					return checked(floor.getAndAdd(count), count);
+				}
+				// timestamp is new: record the numbers issued for the old tick and replace it
+				raiseFloor(t.seal());
+				tick.compareAndSet(t, new Tick(timestamp));
+			}
+		}
+
+		private void raiseFloor(long count) {
+			long f;
+			do {
+				f = floor.get();
+				if (f >= count) return;
+			} while (!floor.compareAndSet(f, count));
+		}
+
+		private long checked(long first, int count) {
+			if (first > LIMIT - count) throw new TicketException(TicketException.Reason.SEQUENCE, "Sequence numbers exhausted");
+			return first;
+		}
+
+	}
+
+	// the information needed to complete the decoding of a lazily decoded ticket
+	private final class LazyContents implements Ticket.Contents<R, D> {
+
+		private final int number;
+		private final BitVector bits;
+		// the bit positions at which the open and secret fields start
+		private final int oPosition;
+		private final int sPosition;
+		// the bit position at which the secure bits start, and their number
+		private final int sStart;
+		private final int sLength;
+
+		LazyContents(int number, BitVector bits, int oPosition, int sPosition, int sStart, int sLength) {
+			this.number = number;
+			this.bits = bits;
+			this.oPosition = oPosition;
+			this.sPosition = sPosition;
+			this.sStart = sStart;
+			this.sLength = sLength;
+		}
+
+		@Override
+		public void resolve(Ticket<R, D> ticket) throws TicketException {
+			TicketAdapter<R> originAdapter = config.originAdapter;
+			TicketAdapter<D> dataAdapter = config.dataAdapter;
+			Object[] originValues = originAdapter.unadapt(null);
+			Object[] dataValues = dataAdapter.unadapt(null);
+			int size = bits.size();
+			try {
+				CodedReader r = new CodedReader(bits.rangeView(size - sPosition, size - oPosition).openReader(), CODING);
+				originAdapter.read(r, false, originValues);
+				dataAdapter.read(r, false, dataValues);
+				if (sLength > 0) readSecret(number, bits, sPosition, sStart, sLength, originValues, dataValues);
+			} catch (BitStreamException e) {
+				throw new TicketException(TicketException.Reason.MALFORMED, "Invalid ticket bits", e);
+			}
+			ticket.setContents(originAdapter.adapt(originValues), dataAdapter.adapt(dataValues));
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	private final class DecodeTask extends RecursiveAction {
+
+		private final String[] strs;
+		private final TicketResult<R, D>[] results;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		DecodeTask(String[] strs, TicketResult<R, D>[] results, int from, int to, int chunkSize) {
+			this.strs = strs;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				for (int i = from; i < to; i++) {
+					results[i] = result(strs[i]);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(
+						new DecodeTask(strs, results, from, mid, chunkSize),
+						new DecodeTask(strs, results, mid, to, chunkSize)
+						);
+			}
+		}
+
+	}
+
+	private class DecodedCache extends TicketCache<String, Ticket<R,D>> {
+
+		@Override
+		int capacity() {
+			// cached tickets are shared, so their values must not expose mutable arrays
+			if (config.originAdapter.isArrayed() || config.dataAdapter.isArrayed()) return 0;
+			return DefaultTicketPolicy.settings(policy).getTicketCacheSize();
+		}
+
+		@Override
+		long idleTime() {
+			return 0L;
+		}
+
+		@Override
+		boolean expired(Ticket<R, D> ticket) {
+			long maxAge = DefaultTicketPolicy.settings(policy).getTicketCacheMaxAge();
+			return maxAge > 0L && clock.millis() - ticket.getTimestamp() > maxAge;
 		}
 
 	}
 
+	// per-thread working state for hashing and encrypting tickets
+	static final class Scratch {
+
+		final KeccakDigest digest = new KeccakDigest(DIGEST_SIZE);
+		final byte[] out = new byte[digest.getDigestSize()];
+		// the bits of a ticket being created, or of the prefix of a ticket being decrypted
+		final LongBitWriter bits = new LongBitWriter();
+		final CodedWriter coded = new CodedWriter(bits, CODING);
+		// the secret fields of a ticket being created
+		final LongBitWriter secret = new LongBitWriter();
+		final CodedWriter secretCoded = new CodedWriter(secret, CODING);
+		// the decrypted secret fields of a ticket being decoded
+		final BitVector secretBits = new BitVector(SECRET_LIMIT);
+
+	}
+
 	private static class MachineRef<R,D> extends WeakReference<TicketMachine<R,D>> {
 
 		final TicketBasis<R> key;
@@ -444,12 +1111,16 @@ public class TicketFactory<R, D> {
 
 	}
 
-	@SuppressWarnings("serial")
-	private class MachineMap extends LinkedHashMap<TicketBasis<R>, TicketMachine<R,D>> {
+	private class MachineCache extends TicketCache<TicketBasis<R>, TicketMachine<R,D>> {
+
+		@Override
+		int capacity() {
+			return policy.getMachineCacheSize();
+		}
 
 		@Override
-		protected boolean removeEldestEntry (Map.Entry<TicketBasis<R>, TicketMachine<R, D>> eldest) {
-			return size() > policy.getMachineCacheSize();
+		long idleTime() {
+			return DefaultTicketPolicy.settings(policy).getMachineCacheIdleTime();
 		}
 
 	}
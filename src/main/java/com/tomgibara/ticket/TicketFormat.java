@@ -17,6 +17,7 @@
 package com.tomgibara.ticket;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import com.tomgibara.bits.BitReader;
@@ -42,28 +43,21 @@ public final class TicketFormat implements Serializable {
 
 	private static final long serialVersionUID = -353061830037002664L;
 
-	private static final char[] CHARS_L = {
-		'0', '1', '2', '3', '4', '5', '6', '7',
-		'8', '9', 'a', 'b', 'c', 'd', 'e', 'f',
-		'g', 'h', 'j', 'k', 'm', 'n', 'p', 'q',
-		'r', 's', 't', 'u', 'v', 'w', 'x', 'y'
-	};
-	private static final char[] CHARS_U = {
-		'0', '1', '2', '3', '4', '5', '6', '7',
-		'8', '9', 'A', 'B', 'C', 'D', 'E', 'F',
-		'G', 'H', 'J', 'K', 'M', 'N', 'P', 'Q',
-		'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y'
-	};
-	private static final int[] BITS = new int[128];
-	static {
-		Arrays.fill(BITS, -1);
-		for (int i = 0; i < 32; i++) {
-			BITS[CHARS_L[i]] = i;
-			BITS[CHARS_U[i]] = i;
+	private static final char[] CHARS_L = TicketAlphabet.BASE32.chars;
+	private static final char[] CHARS_U = new String(CHARS_L).toUpperCase().toCharArray();
+	private static final char[] PAIRS_L = pairs(CHARS_L);
+	private static final char[] PAIRS_U = pairs(CHARS_U);
+	private static final int[] BITS = TicketAlphabet.BASE32.values;
+
+	// two characters for every 10 bit value, so that 40 bits can be written with 4 lookups
+	private static char[] pairs(char[] chars) {
+		char[] pairs = new char[2048];
+		for (int i = 0; i < 1024; i++) {
+			pairs[2 * i    ] = chars[i >> 5];
+			pairs[2 * i + 1] = chars[i & 31];
 		}
+		return pairs;
 	}
-	private static final char PAD_CHAR_L = 'z';
-	private static final char PAD_CHAR_U = 'z';
 
 	/**
 	 * The format which will be applied by ticket factories if no format has
@@ -80,15 +74,41 @@ public final class TicketFormat implements Serializable {
 	private final int charGroupLength;
 	private final char separatorChar;
 	private final boolean padGroups;
+	private final TicketAlphabet alphabet;
 
 	private final char[] chars;
+	private final char[] pairs;
 	private final char padChar;
 
 	// constructors
 
 	private TicketFormat(Serial serial) {
 		// pass forward to standard constructor for validation
-		this(serial.upperCase, serial.charGroupLength, serial.separatorChar, serial.padGroups);
+		this(serial.upperCase, serial.charGroupLength, serial.separatorChar, serial.padGroups,
+				// formats serialized before alphabets were introduced are base 32
+				serial.alphabet == null ? TicketAlphabet.BASE32 : serial.alphabet);
+	}
+
+	/**
+	 * Creates a new ticket format using the {@link TicketAlphabet#BASE32}
+	 * alphabet. See the corresponding accessors on this class for a complete
+	 * explanation of the parameters
+	 *
+	 * @param upperCase
+	 *            true if the tickets should be encoded using upper case
+	 *            characters, false if lower case characters should be used
+	 * @param charGroupLength
+	 *            the number of characters that are grouped for readability, 0
+	 *            to disable grouping
+	 * @param separatorChar
+	 *            the character used to separate groups
+	 * @param padGroups
+	 *            whether the ticket should be padded to a whole number of
+	 *            characters.
+	 */
+
+	public TicketFormat(boolean upperCase, int charGroupLength, char separatorChar, boolean padGroups) {
+		this(upperCase, charGroupLength, separatorChar, padGroups, TicketAlphabet.BASE32);
 	}
 
 	/**
@@ -106,20 +126,31 @@ public final class TicketFormat implements Serializable {
 	 * @param padGroups
 	 *            whether the ticket should be padded to a whole number of
 	 *            characters.
+	 * @param alphabet
+	 *            the characters with which tickets are encoded
+	 * @throws IllegalArgumentException
+	 *             if upper case is requested for a case sensitive alphabet, or
+	 *             if the separator is part of the alphabet
 	 */
 
-	public TicketFormat(boolean upperCase, int charGroupLength, char separatorChar, boolean padGroups) {
+	public TicketFormat(boolean upperCase, int charGroupLength, char separatorChar, boolean padGroups, TicketAlphabet alphabet) {
 		if (charGroupLength < 0) throw new IllegalArgumentException("Negative charGroupLength");
 		if (separatorChar < ' ' || separatorChar > '~') throw new IllegalArgumentException("Non-printable or non ASCII separatorChar");
-		if (BITS[separatorChar] != -1) throw new IllegalArgumentException("separatorChar used for ticket encoding");
-		separatorChar = upperCase ? Character.toUpperCase(separatorChar) : Character.toLowerCase(separatorChar);
+		if (alphabet == null) throw new IllegalArgumentException("null alphabet");
+		if (upperCase && alphabet.caseSensitive) throw new IllegalArgumentException("upperCase with case sensitive alphabet");
+		if (!alphabet.caseSensitive) {
+			separatorChar = upperCase ? Character.toUpperCase(separatorChar) : Character.toLowerCase(separatorChar);
+		}
+		if (alphabet.isEncodingChar(separatorChar)) throw new IllegalArgumentException("separatorChar used for ticket encoding");
 		this.upperCase = upperCase;
 		this.charGroupLength = charGroupLength;
 		this.separatorChar = separatorChar;
 		this.padGroups = padGroups;
+		this.alphabet = alphabet;
 
-		chars = upperCase ? CHARS_U : CHARS_L;
-		padChar = upperCase ? PAD_CHAR_U : PAD_CHAR_L;
+		chars = upperCase ? CHARS_U : alphabet.chars;
+		pairs = upperCase ? PAIRS_U : PAIRS_L;
+		padChar = alphabet.padChar;
 	}
 
 	// accessors
@@ -160,6 +191,28 @@ public final class TicketFormat implements Serializable {
 		return separatorChar;
 	}
 
+	/**
+	 * The alphabet with which tickets are encoded.
+	 *
+	 * @return the alphabet, never null
+	 */
+
+	public TicketAlphabet getAlphabet() {
+		return alphabet;
+	}
+
+	/**
+	 * Whether tickets encoded in this format sort lexicographically in the
+	 * order of their bits. This depends on the alphabet of the format.
+	 *
+	 * @return true if encoded tickets preserve the order of their bits
+	 * @see TicketAlphabet#isSortable()
+	 */
+
+	public boolean isSortable() {
+		return alphabet.sortable;
+	}
+
 	// object methods
 
 	@Override
@@ -168,7 +221,8 @@ public final class TicketFormat implements Serializable {
 				(upperCase ? 0 : 1337 ) + 31 * (
 				(charGroupLength      ) + 31 * (
 				(separatorChar        ) + 31 * (
-				(padGroups ? 0 : 1337 ) ) ) );
+				(padGroups ? 0 : 1337 ) + 31 * (
+				(alphabet.ordinal()   ) ) ) ) );
 	}
 
 	@Override
@@ -180,67 +234,147 @@ public final class TicketFormat implements Serializable {
 		if (this.charGroupLength != that.charGroupLength) return false;
 		if (this.separatorChar != that.separatorChar) return false;
 		if (this.padGroups != that.padGroups) return false;
+		if (this.alphabet != that.alphabet) return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
 		return String.format(
-				"upperCase: %s, charGroupLength: %d, separatorChar: %s, padGroups: %s",
-				upperCase, charGroupLength, separatorChar, padGroups
+				"upperCase: %s, charGroupLength: %d, separatorChar: %s, padGroups: %s, alphabet: %s",
+				upperCase, charGroupLength, separatorChar, padGroups, alphabet
 				);
 	}
 
 	// package methods
 
 	String encode(BitVector bits, int maxLength) {
-		int count = bits.size() / 5;
-		BitReader reader = bits.openReader();
-		StringBuilder sb;
+		return encode(bits, maxLength, null);
+	}
+
+	// the bits are padded with zeros as required by the alphabet
+	// the buffer is used if it is large enough, it may be null
+	String encode(BitVector bits, int maxLength, char[] buffer) {
+		int size = bits.size();
+		int count = alphabet.charCount(size);
+		int prefix = alphabet.designator == 0 ? 0 : 1;
+		int sepCount;
+		int padCount;
 		if (charGroupLength == 0) {
-			// simpler case
-			checkTicketLength(count, maxLength);
-			sb = new StringBuilder(count);
-			for (int i = 0; i < count; i++) {
-				sb.append(chars[reader.read(5)]);
-			}
+			sepCount = 0;
+			padCount = 0;
 		} else {
-			// slightly more complex case
-			int sepCount = (count - 1) / charGroupLength;
-			int padCount = padGroups ? charGroupLength - 1 - (count + charGroupLength - 1) % charGroupLength : 0;
-			int length = count + sepCount + padCount;
-			checkTicketLength(length, maxLength);
-			sb = new StringBuilder(length);
-			for (int i = 0; i < count; i++) {
-				if (i > 0 && (i % charGroupLength) == 0) sb.append(separatorChar);
-				sb.append(chars[reader.read(5)]);
+			sepCount = (count - 1) / charGroupLength;
+			padCount = padGroups ? charGroupLength - 1 - (count + charGroupLength - 1) % charGroupLength : 0;
+		}
+		int length = prefix + count + sepCount + padCount;
+		checkTicketLength(length, maxLength);
+		char[] cs = buffer != null && buffer.length >= length ? buffer : new char[length];
+		BitReader reader = bits.openReader();
+		if (prefix > 0) cs[0] = alphabet.designator;
+		// characters are written after the space required for separators, then spread
+		int start = prefix + sepCount;
+		if (alphabet == TicketAlphabet.BASE32) {
+			encodeBase32(reader, size, cs, start, count);
+		} else if (alphabet.bitsPerChar == 0) {
+			encodeBase58(reader, size, cs, start, count);
+		} else {
+			encodeAligned(reader, size, cs, start, count);
+		}
+		int i = separate(cs, start, count, prefix);
+		Arrays.fill(cs, i, length, padChar);
+		return new String(cs, 0, length);
+	}
+
+	// writes count characters into cs from position i, characters are produced from chunks of up to 40 bits
+	private void encodeBase32(BitReader reader, int size, char[] cs, int i, int count) {
+		// the number of bits that precede the padding
+		int unread = size;
+		// whole chunks are written with four lookups into the pair table
+		for (; count >= 8; count -= 8) {
+			int have = 40 < unread ? 40 : unread;
+			unread -= have;
+			long chunk = have == 0 ? 0L : reader.readLong(have) << 40 - have;
+			int p;
+			p = (int) (chunk >>> 29) & 0x7fe; cs[i++] = pairs[p]; cs[i++] = pairs[p + 1];
+			p = (int) (chunk >>> 19) & 0x7fe; cs[i++] = pairs[p]; cs[i++] = pairs[p + 1];
+			p = (int) (chunk >>>  9) & 0x7fe; cs[i++] = pairs[p]; cs[i++] = pairs[p + 1];
+			p = (int) (chunk <<   1) & 0x7fe; cs[i++] = pairs[p]; cs[i++] = pairs[p + 1];
+		}
+		if (count > 0) {
+			int want = count * 5;
+			int have = want < unread ? want : unread;
+			long chunk = have == 0 ? 0L : reader.readLong(have) << want - have;
+			for (int shift = want - 5; shift >= 0; shift -= 5) {
+				cs[i++] = chars[(int) (chunk >>> shift) & 31];
 			}
-			for (int i = 0; i < padCount; i++) {
-				sb.append(padChar);
+		}
+	}
+
+	// writes count characters into cs from position i, for alphabets with a whole number of bits per character
+	private void encodeAligned(BitReader reader, int size, char[] cs, int i, int count) {
+		int bitsPerChar = alphabet.bitsPerChar;
+		for (int unread = size; count > 0; count--) {
+			int have = bitsPerChar < unread ? bitsPerChar : unread;
+			unread -= have;
+			int value = have == 0 ? 0 : (int) reader.readLong(have) << bitsPerChar - have;
+			cs[i++] = chars[value];
+		}
+	}
+
+	// writes count characters into cs from position i, 41 bits as 7 characters, and 6n-1 bits as n characters
+	private void encodeBase58(BitReader reader, int size, char[] cs, int i, int count) {
+		for (int unread = size; count > 0; ) {
+			int n = count < TicketAlphabet.BASE58_CHUNK_CHARS ? count : TicketAlphabet.BASE58_CHUNK_CHARS;
+			count -= n;
+			int want = n == TicketAlphabet.BASE58_CHUNK_CHARS ? TicketAlphabet.BASE58_CHUNK_BITS : 6 * n - 1;
+			int have = want < unread ? want : unread;
+			unread -= have;
+			long value = have == 0 ? 0L : reader.readLong(have) << want - have;
+			for (int j = n - 1; j >= 0; j--) {
+				long power = TicketAlphabet.BASE58_POWERS[j];
+				cs[i++] = chars[(int) (value / power)];
+				value %= power;
 			}
 		}
-		return sb.toString();
 	}
 
-	BitVector decode(String str, int maxLength) {
-		int length = str.length();
-		checkTicketLength(length, maxLength);
-		int count = 0;
-		for (int i = 0; i < length; i++) {
-			char c = str.charAt(i);
-			if (c < ' ' || c > '~') throw new TicketException("Non-printable or non ASCII ticket character");
-			if (BITS[c] == -1) count++; // assume it's a separator character
+	// moves count characters at start down to position i, inserting separators; returns the end position
+	private int separate(char[] cs, int start, int count, int i) {
+		if (charGroupLength == 0) {
+			if (start != i) System.arraycopy(cs, start, cs, i, count);
+			return i + count;
 		}
-		int size = (length - count) * 5;
-		BitVector vector = new BitVector(size);
-		BitWriter writer = vector.openWriter();
-		for (int i = 0; i < length; i++) {
-			char c = str.charAt(i);
-			int bits = BITS[c];
-			if (bits == -1) continue;
-			writer.write(bits, 5);
+		// groups are moved in order, so the write position never overtakes the read position
+		for (int j = 0; j < count; j += charGroupLength) {
+			if (j > 0) cs[i++] = separatorChar;
+			int n = count - j < charGroupLength ? count - j : charGroupLength;
+			System.arraycopy(cs, start + j, cs, i, n);
+			i += n;
 		}
-		return vector;
+		return i;
+	}
+
+	// encodes bits that begin longer tickets, omitting the padding characters which would sort after them
+	String encodePrefix(BitVector bits) {
+		String str = encode(bits, Integer.MAX_VALUE);
+		int length = str.length();
+		while (length > 0 && str.charAt(length - 1) == padChar) length--;
+		return str.substring(0, length);
+	}
+
+	// a view of ASCII bytes that does not copy or modify the buffer
+	static CharSequence ascii(ByteBuffer buffer, int offset, int length) {
+		return new Ascii(buffer, offset, length);
+	}
+
+	BitVector decode(CharSequence str, int maxLength) {
+		return decode(str, maxLength, true);
+	}
+
+	// returns null if the string cannot be decoded
+	BitVector decodeOrNull(CharSequence str, int maxLength) {
+		return decode(str, maxLength, false);
 	}
 
 	// serialization methods
@@ -253,12 +387,158 @@ public final class TicketFormat implements Serializable {
 
 	private void checkTicketLength(int length, int maxLength) {
 		if (length > maxLength) {
-			throw new TicketException("Ticket length exceeds configured maximum");
+			throw new TicketException(TicketException.Reason.LENGTH, "Ticket length exceeds configured maximum");
+		}
+	}
+
+	// exceptions are only raised if strict, otherwise null is returned
+	private BitVector decode(CharSequence str, int maxLength, boolean strict) {
+		int length = str.length();
+		if (strict) {
+			checkTicketLength(length, maxLength);
+		} else if (length > maxLength) {
+			return null;
+		}
+		TicketAlphabet alphabet = TicketAlphabet.of(str);
+		if (alphabet != TicketAlphabet.BASE32) return decode(str, alphabet, strict);
+		// bits accumulate in a word which is stored only once it is filled,
+		// so short tickets and those with early bad characters allocate nothing
+		long[] words = null;
+		long word = 0L;
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < ' ' || c > '~') {
+				if (strict) throw new TicketException(TicketException.Reason.CHARACTER, "Non-printable or non ASCII ticket character");
+				return null;
+			}
+			int bits = BITS[c];
+			if (bits == -1) continue; // assume it's a separator character
+			int free = 64 - (size & 63);
+			if (free > 5) {
+				word = word << 5 | bits;
+			} else {
+				int spill = 5 - free;
+				if (words == null) words = new long[(length * 5 + 63) >> 6];
+				words[size >> 6] = word << free | bits >>> spill;
+				word = bits & ((1 << spill) - 1);
+			}
+			size += 5;
+		}
+		BitVector vector = new BitVector(size);
+		BitWriter writer = vector.openWriter();
+		int count = size >> 6;
+		for (int i = 0; i < count; i++) {
+			writer.write(words[i], 64);
+		}
+		int remainder = size & 63;
+		if (remainder > 0) writer.write(word, remainder);
+		return vector;
+	}
+
+	// decodes alphabets other than base 32; the characters are counted before the bits are written
+	private static BitVector decode(CharSequence str, TicketAlphabet alphabet, boolean strict) {
+		int length = str.length();
+		int[] values = alphabet.values;
+		int count = 0;
+		for (int i = 1; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < ' ' || c > '~') {
+				if (strict) throw new TicketException(TicketException.Reason.CHARACTER, "Non-printable or non ASCII ticket character");
+				return null;
+			}
+			if (values[c] != -1) count ++;
+		}
+		int bitsPerChar = alphabet.bitsPerChar;
+		int size;
+		if (bitsPerChar != 0) {
+			size = count * bitsPerChar;
+		} else {
+			int partial = count % TicketAlphabet.BASE58_CHUNK_CHARS;
+			size = count / TicketAlphabet.BASE58_CHUNK_CHARS * TicketAlphabet.BASE58_CHUNK_BITS + (partial == 0 ? 0 : 6 * partial - 1);
+		}
+		BitVector vector = new BitVector(size);
+		BitWriter writer = vector.openWriter();
+		if (bitsPerChar != 0) {
+			for (int i = 1; i < length; i++) {
+				int value = values[str.charAt(i)];
+				if (value != -1) writer.write(value, bitsPerChar);
+			}
+			return vector;
+		}
+		long value = 0L;
+		int n = 0;
+		for (int i = 1; i < length; i++) {
+			int digit = values[str.charAt(i)];
+			if (digit == -1) continue;
+			value = value * 58 + digit;
+			if (++n == TicketAlphabet.BASE58_CHUNK_CHARS) {
+				if (!writeBase58(writer, value, TicketAlphabet.BASE58_CHUNK_BITS, strict)) return null;
+				value = 0L;
+				n = 0;
+			}
+		}
+		if (n > 0 && !writeBase58(writer, value, 6 * n - 1, strict)) return null;
+		return vector;
+	}
+
+	// some character combinations exceed the number of bits they encode
+	private static boolean writeBase58(BitWriter writer, long value, int count, boolean strict) {
+		if (value >>> count != 0L) {
+			if (strict) throw new TicketException(TicketException.Reason.CHARACTER, "Invalid base 58 ticket characters");
+			return false;
 		}
+		writer.write(value, count);
+		return true;
 	}
 
 	// inner classes
 
+	// may be repositioned so that a single instance can view many tickets
+	static final class Ascii implements CharSequence {
+
+		private ByteBuffer buffer;
+		private int offset;
+		private int length;
+
+		Ascii(ByteBuffer buffer, int offset, int length) {
+			set(buffer, offset, length);
+		}
+
+		void set(ByteBuffer buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) throw new IndexOutOfBoundsException();
+			return (char) (buffer.get(offset + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+			return new Ascii(buffer, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			char[] cs = new char[length];
+			for (int i = 0; i < length; i++) {
+				cs[i] = charAt(i);
+			}
+			return new String(cs);
+		}
+
+	}
+
 	private static final class Serial implements Serializable {
 
 		private static final long serialVersionUID = -6235529982242159983L;
@@ -267,12 +547,15 @@ public final class TicketFormat implements Serializable {
 		private final int charGroupLength;
 		private final char separatorChar;
 		private final boolean padGroups;
+		// null in formats serialized before alphabets were introduced
+		private final TicketAlphabet alphabet;
 
 		public Serial(TicketFormat that) {
 			this.upperCase = that.upperCase;
 			this.charGroupLength = that.charGroupLength;
 			this.separatorChar = that.separatorChar;
 			this.padGroups = that.padGroups;
+			this.alphabet = that.alphabet;
 		}
 
 		private Object readResolve() {
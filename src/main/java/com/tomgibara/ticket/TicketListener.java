@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+/**
+ * <p>
+ * Receives notifications of the tickets issued and decoded by a
+ * {@link TicketFactory}. Listeners are intended for the collection of
+ * operational metrics; {@link TicketMetrics} provides a standard
+ * implementation.
+ * <p>
+ * Listeners are called synchronously on the threads that issue and decode
+ * tickets and may be called concurrently. Implementations should be fast and
+ * must not throw exceptions. No timings are measured by a factory that has no
+ * listener.
+ *
+ * @author Tom Gibara
+ * @see TicketFactory#setListener(TicketListener)
+ */
+
+public interface TicketListener {
+
+	/**
+	 * Called after a ticket has been issued. The time taken to issue the
+	 * ticket is reported in four parts. The durations are measured with
+	 * {@link System#nanoTime()}. When a range of sequence numbers is reserved
+	 * for several tickets, the time taken to reserve it is reported for the
+	 * first ticket and the sequence duration of the others is zero.
+	 *
+	 * @param basis
+	 *            the basis of the machine that issued the ticket
+	 * @param sequenceNanos
+	 *            the time spent obtaining the sequence number
+	 * @param encodingNanos
+	 *            the time spent encoding the ticket bits, excluding hashing
+	 * @param hashingNanos
+	 *            the time spent digesting the ticket, to hash it or to
+	 *            encrypt its secret fields
+	 * @param formattingNanos
+	 *            the time spent formatting the ticket as a string
+	 */
+
+	void ticketIssued(TicketBasis<?> basis, long sequenceNanos, long encodingNanos, long hashingNanos, long formattingNanos);
+
+	/**
+	 * Called after a ticket has been successfully decoded. Note that tickets
+	 * checked with {@link TicketFactory#isValid(CharSequence)} are not
+	 * reported.
+	 *
+	 * @param specNumber
+	 *            the index of the ticket's specification in the factory
+	 *            configuration
+	 * @see TicketConfig#getSpecifications()
+	 */
+
+	void ticketDecoded(int specNumber);
+
+	/**
+	 * Called when a ticket could not be decoded.
+	 *
+	 * @param reason
+	 *            the reason the ticket was rejected
+	 * @see TicketException#getReason()
+	 */
+
+	void ticketRejected(TicketException.Reason reason);
+
+}
@@ -16,7 +16,9 @@
  */
 package com.tomgibara.ticket;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.tomgibara.bits.BitVector;
 import com.tomgibara.bits.BitVectorWriter;
@@ -38,6 +40,12 @@ public class TicketMachine<R, D> {
 
 	// statics
 
+	// batches consult the clock periodically rather than for every ticket
+	private static final int BATCH_CLOCK_INTERVAL = 256;
+
+	// an upper limit on the size of the character buffer shared across a batch
+	private static final int BATCH_BUFFER_LIMIT = 1024;
+
 	private static long bytesToLong(byte[] bytes, int i) {
 		return
 				( (long)  bytes[i + 0]         << 56) |
@@ -50,11 +58,14 @@ public class TicketMachine<R, D> {
 				(        (bytes[i + 7] & 0xff) <<  0);
 	}
 
-	private static long generateNonce(byte[] digest) {
-		long seed = bytesToLong(digest, digest.length - 8);
-		Random random = new Random(seed);
-		int count = 16 + random.nextInt(16);
-		int bits = random.nextInt();
+	// equivalent to seeding a java.util.Random and calling nextInt(16) then nextInt()
+	static long generateNonce(byte[] digest) {
+		long seed = (bytesToLong(digest, digest.length - 8) ^ 0x5DEECE66DL) & (1L << 48) - 1;
+		seed = seed * 0x5DEECE66DL + 0xBL & (1L << 48) - 1;
+		// nextInt with a power of two bound takes the high bits
+		int count = 16 + (int) (16L * (int) (seed >>> 17) >> 31);
+		seed = seed * 0x5DEECE66DL + 0xBL & (1L << 48) - 1;
+		int bits = (int) (seed >>> 16);
 		long bit = 1L << count;
 		return bit | bits & bit - 1L;
 	}
@@ -64,10 +75,20 @@ public class TicketMachine<R, D> {
 	private final TicketFactory<R, D> factory;
 	private final TicketBasis<R> basis;
 	private final TicketSequence sequence;
+	// null if the sequence cannot reserve ranges
+	private final TicketRangeSequence rangeSequence;
 	private final TicketSpec spec;
 
 	private final boolean hasSecret;
 
+	// the coded version and spec number with which every ticket starts
+	private final BitVector header;
+	// the bits that follow the sequence number when they are the same for every ticket, otherwise null
+	private final BitVector trailer;
+
+	// the most recently reserved block of sequence numbers, may be null
+	private volatile Block block = null;
+
 	// constructors
 
 	TicketMachine(TicketFactory<R, D> factory, TicketBasis<R> basis) {
@@ -75,9 +96,26 @@ public class TicketMachine<R, D> {
 		this.basis = basis;
 		sequence = factory.sequences.getSequence(basis);
 		if (sequence == null) throw new IllegalStateException("No sequence for basis: " + basis);
+		rangeSequence = sequence instanceof TicketRangeSequence ? (TicketRangeSequence) sequence : null;
 		spec = factory.specs[basis.specNumber];
 		TicketConfig<R, D> config = factory.config;
 		hasSecret = config.originAdapter.isSecretive() || config.dataAdapter.isSecretive();
+
+		BitVectorWriter writer = new BitVectorWriter();
+		CodedWriter w = new CodedWriter(writer, TicketFactory.CODING);
+		w.writePositiveInt(TicketFactory.VERSION);
+		w.writePositiveInt(basis.specNumber);
+		header = writer.toImmutableBitVector();
+		if (config.dataAdapter.isOpen()) {
+			trailer = null;
+		} else {
+			writer = new BitVectorWriter();
+			w = new CodedWriter(writer, TicketFactory.CODING);
+			basis.openOriginBits.writeTo(writer);
+			w.writePositiveInt(0); // no open data fields
+			if (!hasSecret) w.writePositiveInt(0); // no encrypted bits
+			trailer = writer.toImmutableBitVector();
+		}
 	}
 
 	// accessors
@@ -152,61 +190,253 @@ public class TicketMachine<R, D> {
 		return ticketImpl( factory.config.dataAdapter.defaultValues(dataValues) );
 	}
 
+	/**
+	 * Creates a number of tickets with default data values. This is equivalent
+	 * to calling {@link #ticket()} repeatedly, but amortizes the cost of
+	 * ticket creation over the batch. The timestamps of the tickets are
+	 * obtained periodically during the batch and so may lag the time at which
+	 * each ticket is created by a small amount.
+	 *
+	 * @param count
+	 *            the number of tickets to create
+	 * @return a list of new tickets, in the order they were created
+	 * @throws TicketException
+	 *             if the sequence numbers have become exhausted
+	 * @throws IllegalArgumentException
+	 *             if the count is negative
+	 */
+
+	public List<Ticket<R, D>> tickets(int count) throws TicketException {
+		if (count < 0) throw new IllegalArgumentException("negative count");
+		return ticketsImpl(count, null);
+	}
+
+	/**
+	 * Creates a ticket for each element of the supplied list. This is
+	 * equivalent to calling {@link #ticketData(Object)} for each element in
+	 * turn, but amortizes the cost of ticket creation over the batch as per
+	 * {@link #tickets(int)}.
+	 *
+	 * @param data
+	 *            the data for each ticket, elements may be null
+	 * @return a list of new tickets, corresponding to the supplied data
+	 * @throws TicketException
+	 *             if the sequence numbers have become exhausted
+	 */
+
+	public List<Ticket<R, D>> ticketsData(List<? extends D> data) throws TicketException {
+		if (data == null) throw new IllegalArgumentException("null data");
+		return ticketsImpl(data.size(), data);
+	}
+
+	/**
+	 * A string that bounds the encodings of tickets by the time at which they
+	 * were created. The strings of tickets created at or after the supplied
+	 * time sort lexicographically at or after the bound, and those of tickets
+	 * created before it sort before the bound; the time is truncated to the
+	 * granularity of the specification. So a time window may be converted
+	 * into a range of ticket strings, with the bounds of the window giving an
+	 * inclusive lower bound and an exclusive upper bound. The bounds apply to
+	 * tickets created with the same specification as this machine, and
+	 * encoded using the current format of the factory.
+	 *
+	 * @param millis
+	 *            a time in milliseconds
+	 * @return a string that bounds ticket strings
+	 * @throws IllegalArgumentException
+	 *             if the time exceeds the range of the timestamp field
+	 * @throws IllegalStateException
+	 *             if the specification or the format is not sortable
+	 * @see TicketSpec#isSortable()
+	 * @see TicketFormat#isSortable()
+	 */
+
+	public String timeBound(long millis) {
+		TicketFormat format = factory.format;
+		if (!spec.isSortable()) throw new IllegalStateException("Ticket specification is not sortable");
+		if (!format.isSortable()) throw new IllegalStateException("Ticket format is not sortable");
+		// no tickets are created before the origin
+		long timestamp = Math.max(spec.timestamp(millis), 0L);
+		int length = spec.getTimestampLength();
+		if (timestamp >>> length != 0L) throw new IllegalArgumentException("millis exceeds timestamp length");
+		BitVectorWriter writer = new BitVectorWriter();
+		header.writeTo(writer);
+		writer.write(timestamp, length);
+		return format.encodePrefix(writer.toImmutableBitVector());
+	}
+
 	private Ticket<R, D> ticketImpl(Object... dataValues) throws TicketException {
+		factory.recordMachineAccess(this);
+		TicketListener listener = factory.listener;
+		long timestamp = spec.timestamp(factory.clock.millis());
+		long seq = reservedSequenceNumber(timestamp);
+		long sequenceNanos = 0L;
+		if (seq < 0L) {
+			long start = listener == null ? 0L : System.nanoTime();
+			seq = sequenceNumber(timestamp);
+			if (listener != null) sequenceNanos = System.nanoTime() - start;
+		}
+		return newTicket(timestamp, seq, dataValues, factory.format, factory.policy.getTicketCharLimit(), null, listener, sequenceNanos);
+	}
+
+	private List<Ticket<R, D>> ticketsImpl(int count, List<? extends D> data) throws TicketException {
+		List<Ticket<R, D>> tickets = new ArrayList<Ticket<R, D>>(count);
+		if (count == 0) return tickets;
 		factory.recordMachineAccess(this);
 		TicketAdapter<D> dataAdapter = factory.config.dataAdapter;
-		D data = dataAdapter.adapt(dataValues);
-		BitVectorWriter writer = new BitVectorWriter();
-		CodedWriter w = new CodedWriter(writer, TicketFactory.CODING);
-		int number = basis.specNumber;
-		long timestamp = spec.timestamp();
+		TicketFormat format = factory.format;
+		int charLimit = factory.policy.getTicketCharLimit();
+		TicketClock clock = factory.clock;
+		TicketListener listener = factory.listener;
+		char[] buffer = new char[Math.min(charLimit, BATCH_BUFFER_LIMIT)];
+		// default values are never modified, so they can be shared by the tickets
+		Object[] defaultValues = data == null ? dataAdapter.unadapt(null) : null;
+		long timestamp = 0L;
+		long seq = 0L;
+		for (int i = 0; i < count; i++) {
+			// only the tickets that obtain numbers from the sequence are timed
+			long start = 0L;
+			long sequenceNanos = 0L;
+			if (i % BATCH_CLOCK_INTERVAL == 0) {
+				timestamp = spec.timestamp(clock.millis());
+				// reserve numbers for all the tickets that will share this timestamp
+				if (rangeSequence != null) {
+					if (listener != null) start = System.nanoTime();
+					seq = sequenceNumbers(timestamp, Math.min(BATCH_CLOCK_INTERVAL, count - i));
+					if (listener != null) sequenceNanos = System.nanoTime() - start;
+				}
+			}
+			if (rangeSequence == null) {
+				if (listener != null) start = System.nanoTime();
+				seq = sequenceNumber(timestamp);
+				if (listener != null) sequenceNanos = System.nanoTime() - start;
+			}
+			Object[] dataValues = data == null ? defaultValues : dataAdapter.unadapt(data.get(i));
+			tickets.add( newTicket(timestamp, seq++, dataValues, format, charLimit, buffer, listener, sequenceNanos) );
+		}
+		return tickets;
+	}
+
+	// a number from the most recently reserved block, or -1 if none is available
+	private long reservedSequenceNumber(long timestamp) {
+		Block b = block;
+		if (b == null || b.timestamp != timestamp) return -1L;
+		long seq = b.next.getAndIncrement();
+		return seq <= b.last ? seq : -1L;
+	}
+
+	private long sequenceNumber(long timestamp) throws TicketException {
+		if (rangeSequence != null) {
+			int size = DefaultTicketPolicy.settings(factory.policy).getSequenceBlockSize();
+			if (size > 1) {
+				// concurrent threads may each reserve a block, the losers' numbers go unused
+				long first = sequenceNumbers(timestamp, size);
+				block = new Block(timestamp, first + 1, first + size - 1);
+				return first;
+			}
+		}
 		final long seq;
 		try {
 			seq = sequence.nextSequenceNumber(timestamp);
 		} catch (RuntimeException e) {
-			throw new TicketException("Failed to obtain sequence number for origin: " + basis, e);
+			throw new TicketException(TicketException.Reason.SEQUENCE, "Failed to obtain sequence number for origin: " + basis, e);
+		}
+		if (seq < 0) throw new TicketException(TicketException.Reason.SEQUENCE, "Ticket sequence returned a negative number: " + seq);
+		return seq;
+	}
+
+	private long sequenceNumbers(long timestamp, int count) throws TicketException {
+		final long first;
+		try {
+			first = rangeSequence.nextSequenceNumbers(timestamp, count);
+		} catch (RuntimeException e) {
+			throw new TicketException(TicketException.Reason.SEQUENCE, "Failed to obtain sequence numbers for origin: " + basis, e);
+		}
+		if (first < 0) throw new TicketException(TicketException.Reason.SEQUENCE, "Ticket sequence returned a negative number: " + first);
+		if (first - 1 > Long.MAX_VALUE - count) throw new TicketException(TicketException.Reason.SEQUENCE, "Ticket sequence returned an overflowing range: " + first);
+		return first;
+	}
+
+	// listener may be null, in which case no timings are taken
+	private Ticket<R, D> newTicket(long timestamp, long seq, Object[] dataValues, TicketFormat format, int charLimit, char[] buffer, TicketListener listener, long sequenceNanos) throws TicketException {
+		long start = listener == null ? 0L : System.nanoTime();
+		long hashingNanos = 0L;
+		TicketAdapter<D> dataAdapter = factory.config.dataAdapter;
+		D data = dataAdapter.adapt(dataValues);
+		// the bits are accumulated in per-thread scratch, and copied once into the ticket
+		TicketFactory.Scratch scratch = factory.scratch();
+		LongBitWriter writer = scratch.bits;
+		CodedWriter w = scratch.coded;
+		writer.reset();
+		int number = basis.specNumber;
+		header.writeTo(writer);
+		spec.writeTimestamp(w, timestamp);
+		spec.writeSequenceNumber(w, seq);
+		if (trailer == null) {
+			basis.openOriginBits.writeTo(writer);
+			dataAdapter.write(w, false, dataValues);
+		} else {
+			trailer.writeTo(writer);
 		}
-		if (seq < 0) throw new TicketException("Ticket sequence returned a negative number: " + seq);
-		int length = 0;
-		length += w.writePositiveInt(TicketFactory.VERSION);
-		length += w.writePositiveInt(number);
-		length += w.writeLong(timestamp);
-		length += w.writePositiveLong(seq);
-		length += basis.openOriginBits.writeTo(writer);
-		length += dataAdapter.write(w, false, dataValues);
 		if (hasSecret) {
 			// digest this prefix
-			// Note: flushing not currently necessary when writing to BitVectors
-			// but in case this changes in the future
-			writer.flush();
-			byte[] digest = factory.digest(number, writer.toImmutableBitVector().toByteArray());
+			long mark = listener == null ? 0L : System.nanoTime();
+			byte[] digest = factory.digest(number, writer);
+			if (listener != null) hashingNanos += System.nanoTime() - mark;
 			// xor extract bytes, digest with secret bits and write out
-			// start by writing the secret fields into a bit vector
-			BitVectorWriter sWriter = new BitVectorWriter();
-			CodedWriter sW = new CodedWriter(sWriter, TicketFactory.CODING);
+			// start by writing the secret fields into the scratch
+			LongBitWriter sWriter = scratch.secret;
+			CodedWriter sW = scratch.secretCoded;
+			sWriter.reset();
 			factory.config.originAdapter.write(sW, true, basis.values);
 			dataAdapter.write(sW, true, dataValues);
 			// add a nonce between 16 and 32 bits to avoid deducing information from the secret length
 			// we compute this from the 64 MSB bits which we reserve from the digest.
 			sW.writePositiveLong( generateNonce(digest) );
-			BitVector sBits = sWriter.toMutableBitVector();
-			// measure the bit vector and write out the length
-			int sLength = sBits.size();
+			// measure the secret bits and write out the length
+			int sLength = sWriter.size();
 			factory.checkSecretLength(sLength);
-			length += w.writePositiveInt(sLength);
-			// xor the digest with the bits and write to the ticket
-			sBits.xorVector(BitVector.fromByteArray(digest, sLength));
-			length += sBits.writeTo(writer);
-		} else {
+			w.writePositiveInt(sLength);
+			// xor the digest with the bits in place and write to the ticket
+			sWriter.xorBits(digest);
+			sWriter.writeTo(writer);
+		} else if (trailer == null) {
 			// no encrypted bits
-			length += w.writePositiveInt(0);
+			w.writePositiveInt(0);
+		}
+		if (spec.getHashLength() > 0) {
+			long mark = listener == null ? 0L : System.nanoTime();
+			spec.writeHash(factory.keyedDigest(number), writer, scratch.out);
+			if (listener != null) hashingNanos += System.nanoTime() - mark;
 		}
-		length += spec.writeHash(factory.digests[number], writer);
-		int padding = 4 - (length + 4) % 5;
-		length += writer.writeBooleans(false, padding);
-		BitVector bits = writer.toImmutableBitVector();
-		String string = factory.format.encode(bits, factory.policy.getTicketCharLimit());
-		return new Ticket<R, D>(spec, bits, timestamp, seq, basis.origin, data, string);
+		// padding is added by the format
+		BitVector bits = writer.toBitVector();
+		if (listener == null) {
+			String string = format.encode(bits, charLimit, buffer);
+			return new Ticket<R, D>(spec, bits, timestamp, seq, basis.origin, data, format, string);
+		}
+		long encoded = System.nanoTime();
+		String string = format.encode(bits, charLimit, buffer);
+		long formattingNanos = System.nanoTime() - encoded;
+		listener.ticketIssued(basis, sequenceNanos, encoded - start - hashingNanos, hashingNanos, formattingNanos);
+		return new Ticket<R, D>(spec, bits, timestamp, seq, basis.origin, data, format, string);
+	}
+
+	// inner classes
+
+	private static final class Block {
+
+		final long timestamp;
+		final AtomicLong next;
+		// inclusive
+		final long last;
+
+		Block(long timestamp, long next, long last) {
+			this.timestamp = timestamp;
+			this.next = new AtomicLong(next);
+			this.last = last;
+		}
+
 	}
 
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A listener that accumulates counts and latency histograms for the tickets
+ * issued and decoded by one or more factories. Tickets issued are counted per
+ * {@link TicketBasis}, decoded tickets per specification number and rejected
+ * tickets per {@link TicketException.Reason}.
+ * <p>
+ * Latencies are recorded in histograms with buckets that double in width, so
+ * that percentiles are accurate to within a factor of two. Note that a
+ * reference to every basis for which a ticket is issued is retained.
+ * <p>
+ * Instances of this class are safe for concurrent access by multiple threads.
+ *
+ * @author Tom Gibara
+ * @see TicketFactory#setListener(TicketListener)
+ */
+
+public final class TicketMetrics implements TicketListener {
+
+	// statics
+
+	// bucket i counts durations below 2^i nanoseconds, not counted by earlier buckets
+	private static final int BUCKETS = 64;
+
+	private static final TicketException.Reason[] REASONS = TicketException.Reason.values();
+
+	// fields
+
+	private final ConcurrentMap<TicketBasis<?>, AtomicLong> issued = new ConcurrentHashMap<TicketBasis<?>, AtomicLong>();
+	private final ConcurrentMap<Integer, AtomicLong> decoded = new ConcurrentHashMap<Integer, AtomicLong>();
+	private final AtomicLongArray rejected = new AtomicLongArray(REASONS.length);
+	private final Histogram sequence = new Histogram();
+	private final Histogram encoding = new Histogram();
+	private final Histogram hashing = new Histogram();
+	private final Histogram formatting = new Histogram();
+
+	// accessors
+
+	/**
+	 * The number of tickets issued for a basis.
+	 *
+	 * @param basis
+	 *            a ticket basis
+	 * @return the number of tickets issued by machines with the basis
+	 */
+
+	public long getIssuedCount(TicketBasis<?> basis) {
+		if (basis == null) throw new IllegalArgumentException("null basis");
+		return count(issued.get(basis));
+	}
+
+	/**
+	 * The number of tickets issued, for every basis that has issued tickets.
+	 *
+	 * @return an unmodifiable snapshot of the issued counts
+	 */
+
+	public Map<TicketBasis<?>, Long> getIssuedCounts() {
+		return snapshot(issued);
+	}
+
+	/**
+	 * The number of tickets decoded with a specification.
+	 *
+	 * @param specNumber
+	 *            the index of a specification in the factory configuration
+	 * @return the number of tickets decoded
+	 */
+
+	public long getDecodedCount(int specNumber) {
+		return count(decoded.get(specNumber));
+	}
+
+	/**
+	 * The number of tickets decoded, for every specification number with
+	 * which tickets have been decoded.
+	 *
+	 * @return an unmodifiable snapshot of the decoded counts
+	 */
+
+	public Map<Integer, Long> getDecodedCounts() {
+		return snapshot(decoded);
+	}
+
+	/**
+	 * The number of tickets rejected for a reason.
+	 *
+	 * @param reason
+	 *            the reason for which tickets were rejected
+	 * @return the number of tickets rejected
+	 */
+
+	public long getRejectedCount(TicketException.Reason reason) {
+		if (reason == null) throw new IllegalArgumentException("null reason");
+		return rejected.get(reason.ordinal());
+	}
+
+	/**
+	 * The time spent obtaining sequence numbers for issued tickets.
+	 *
+	 * @return a snapshot of the latencies
+	 */
+
+	public Latency getSequenceLatency() {
+		return sequence.snapshot();
+	}
+
+	/**
+	 * The time spent encoding issued tickets, excluding hashing.
+	 *
+	 * @return a snapshot of the latencies
+	 */
+
+	public Latency getEncodingLatency() {
+		return encoding.snapshot();
+	}
+
+	/**
+	 * The time spent digesting issued tickets.
+	 *
+	 * @return a snapshot of the latencies
+	 */
+
+	public Latency getHashingLatency() {
+		return hashing.snapshot();
+	}
+
+	/**
+	 * The time spent formatting issued tickets as strings.
+	 *
+	 * @return a snapshot of the latencies
+	 */
+
+	public Latency getFormattingLatency() {
+		return formatting.snapshot();
+	}
+
+	// listener methods
+
+	@Override
+	public void ticketIssued(TicketBasis<?> basis, long sequenceNanos, long encodingNanos, long hashingNanos, long formattingNanos) {
+		counter(issued, basis).incrementAndGet();
+		sequence.record(sequenceNanos);
+		encoding.record(encodingNanos);
+		hashing.record(hashingNanos);
+		formatting.record(formattingNanos);
+	}
+
+	@Override
+	public void ticketDecoded(int specNumber) {
+		counter(decoded, specNumber).incrementAndGet();
+	}
+
+	@Override
+	public void ticketRejected(TicketException.Reason reason) {
+		rejected.incrementAndGet(reason.ordinal());
+	}
+
+	// object methods
+
+	@Override
+	public String toString() {
+		long rejectedCount = 0L;
+		for (int i = 0; i < REASONS.length; i++) {
+			rejectedCount += rejected.get(i);
+		}
+		return String.format(
+				"issued: %s, decoded: %s, rejected: %d, sequence: [%s], encoding: [%s], hashing: [%s], formatting: [%s]",
+				getIssuedCounts().values(), getDecodedCounts(), rejectedCount, sequence.snapshot(), encoding.snapshot(), hashing.snapshot(), formatting.snapshot()
+				);
+	}
+
+	// private helper methods
+
+	private static <K> AtomicLong counter(ConcurrentMap<K, AtomicLong> map, K key) {
+		AtomicLong counter = map.get(key);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong existing = map.putIfAbsent(key, counter);
+			if (existing != null) counter = existing;
+		}
+		return counter;
+	}
+
+	private static long count(AtomicLong counter) {
+		return counter == null ? 0L : counter.get();
+	}
+
+	private static <K> Map<K, Long> snapshot(ConcurrentMap<K, AtomicLong> map) {
+		Map<K, Long> counts = new HashMap<K, Long>();
+		for (Map.Entry<K, AtomicLong> entry : map.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	// inner classes
+
+	/**
+	 * A snapshot of a latency histogram. Because the histogram is updated
+	 * concurrently, the values in a snapshot may not be precisely consistent
+	 * with each other.
+	 *
+	 * @author Tom Gibara
+	 */
+
+	public static final class Latency {
+
+		private final long[] buckets;
+		private final long count;
+		private final long totalNanos;
+
+		private Latency(long[] buckets, long totalNanos) {
+			this.buckets = buckets;
+			long count = 0L;
+			for (long c : buckets) count += c;
+			this.count = count;
+			this.totalNanos = totalNanos;
+		}
+
+		/**
+		 * The number of durations recorded.
+		 *
+		 * @return the count
+		 */
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * The sum of the durations recorded.
+		 *
+		 * @return the total duration in nanoseconds
+		 */
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * The mean duration recorded.
+		 *
+		 * @return the mean in nanoseconds, or zero if no durations were
+		 *         recorded
+		 */
+
+		public double getMeanNanos() {
+			return count == 0L ? 0.0 : (double) totalNanos / count;
+		}
+
+		/**
+		 * An upper bound on a percentile of the recorded durations. The bound
+		 * is at most twice the percentile.
+		 *
+		 * @param percentile
+		 *            a percentile between 0 and 100 inclusive
+		 * @return a bound on the percentile in nanoseconds, or zero if no
+		 *         durations were recorded
+		 */
+
+		public long getPercentileNanos(double percentile) {
+			if (!(percentile >= 0.0 && percentile <= 100.0)) throw new IllegalArgumentException("invalid percentile");
+			if (count == 0L) return 0L;
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0L;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0L) return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1L;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count: %d, mean: %.1fns, p99: %dns", count, getMeanNanos(), getPercentileNanos(99.0));
+		}
+
+	}
+
+	private static final class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong total = new AtomicLong();
+
+		void record(long nanos) {
+			if (nanos < 0L) nanos = 0L;
+			buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1));
+			total.addAndGet(nanos);
+		}
+
+		Latency snapshot() {
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+			}
+			return new Latency(counts, total.get());
+		}
+
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+/**
+ * A ticket sequence that is able to reserve a contiguous range of sequence
+ * numbers in a single operation. Implementing this interface allows a
+ * {@link TicketMachine} to draw sequence numbers from a locally held range
+ * instead of consulting the sequence for every ticket. This is primarily of
+ * benefit to sequences which are backed by remote or persistent storage.
+ * <p>
+ * Reserved ranges that are not fully consumed (because the timestamp advances
+ * for example) are simply discarded; sequence numbers need only be distinct
+ * for any one timestamp.
+ *
+ * @author Tom Gibara
+ * @see DefaultTicketPolicy#getSequenceBlockSize()
+ */
+
+public interface TicketRangeSequence extends TicketSequence {
+
+	/**
+	 * Reserves a number of consecutive sequence numbers for a single
+	 * timestamp. None of the numbers in the returned range may be assigned
+	 * again for the same timestamp. Note that method may be called
+	 * concurrently by multiple threads.
+	 *
+	 * @param timestamp
+	 *            a timestamp associated with the tickets
+	 * @param count
+	 *            the number of sequence numbers required, always positive
+	 * @return the first of count non-negative sequence numbers
+	 * @throws TicketException
+	 *             if the sequence numbers cannot be generated
+	 */
+
+	long nextSequenceNumbers(long timestamp, int count) throws TicketException;
+
+}
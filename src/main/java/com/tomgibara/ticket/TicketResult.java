@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+/**
+ * The outcome of decoding a single ticket string as part of a bulk decode.
+ * Each result records either the ticket that was decoded or the exception
+ * that prevented the string from being decoded.
+ *
+ * @author Tom Gibara
+ *
+ * @param <R>
+ *            the type of origin information recorded
+ * @param <D>
+ *            the type of data information recorded
+ * @see TicketFactory#decodeTickets(java.util.List, java.util.concurrent.ForkJoinPool)
+ */
+
+public final class TicketResult<R, D> {
+
+	// fields
+
+	private final String string;
+	private final Ticket<R, D> ticket;
+	private final TicketException exception;
+
+	// constructors
+
+	TicketResult(String string, Ticket<R, D> ticket) {
+		this.string = string;
+		this.ticket = ticket;
+		this.exception = null;
+	}
+
+	TicketResult(String string, TicketException exception) {
+		this.string = string;
+		this.ticket = null;
+		this.exception = exception;
+	}
+
+	// accessors
+
+	/**
+	 * The string which was decoded.
+	 *
+	 * @return the ticket string, possibly null if a null string was supplied
+	 */
+
+	public String getString() {
+		return string;
+	}
+
+	/**
+	 * Whether the string was successfully decoded into a ticket.
+	 *
+	 * @return true if a ticket is available, false if an exception is
+	 */
+
+	public boolean isValid() {
+		return ticket != null;
+	}
+
+	/**
+	 * The decoded ticket.
+	 *
+	 * @return the ticket, or null if the string could not be decoded
+	 */
+
+	public Ticket<R, D> getTicket() {
+		return ticket;
+	}
+
+	/**
+	 * The reason the string could not be decoded.
+	 *
+	 * @return the exception raised on decoding, or null if the string was
+	 *         successfully decoded
+	 */
+
+	public TicketException getException() {
+		return exception;
+	}
+
+	// object methods
+
+	@Override
+	public String toString() {
+		return ticket == null ? string + " invalid: " + exception.getMessage() : string;
+	}
+
+}
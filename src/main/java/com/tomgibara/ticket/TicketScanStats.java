@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.util.Arrays;
+
+/**
+ * Aggregate statistics produced by a {@link TicketScanner}.
+ *
+ * @author Tom Gibara
+ * @see TicketScanner#scan(java.nio.file.Path, TicketScanner.Listener)
+ * @see TicketScanner#validate(java.nio.file.Path)
+ */
+
+public final class TicketScanStats {
+
+	// fields
+
+	private final long validCount;
+	private final long invalidCount;
+	private final long[] specCounts;
+
+	// constructors
+
+	TicketScanStats(long validCount, long invalidCount, long[] specCounts) {
+		this.validCount = validCount;
+		this.invalidCount = invalidCount;
+		this.specCounts = specCounts;
+	}
+
+	// accessors
+
+	/**
+	 * The number of tickets that were successfully decoded or validated.
+	 *
+	 * @return the number of valid tickets
+	 */
+
+	public long getValidCount() {
+		return validCount;
+	}
+
+	/**
+	 * The number of non-empty entries that were not valid tickets.
+	 *
+	 * @return the number of invalid tickets
+	 */
+
+	public long getInvalidCount() {
+		return invalidCount;
+	}
+
+	/**
+	 * The number of valid tickets that were created with the specification at
+	 * the given index.
+	 *
+	 * @param specNumber
+	 *            the index of a specification of the scanning factory
+	 * @return the number of valid tickets with the specification
+	 * @throws IllegalArgumentException
+	 *             if the specification number is not valid for the factory
+	 * @see TicketConfig#getSpecifications()
+	 */
+
+	public long getValidCount(int specNumber) {
+		if (specNumber < 0 || specNumber >= specCounts.length) throw new IllegalArgumentException("invalid specNumber");
+		return specCounts[specNumber];
+	}
+
+	// object methods
+
+	@Override
+	public String toString() {
+		return String.format(
+				"valid: %d, invalid: %d, by specification: %s",
+				validCount, invalidCount, Arrays.toString(specCounts)
+				);
+	}
+
+}
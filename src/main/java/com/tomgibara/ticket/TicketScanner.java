@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scans files of delimited ticket strings, such as logs or ticket dumps. Files
+ * are memory mapped and the tickets are decoded directly from the mapped
+ * bytes; no strings are created for the individual entries. Files larger than
+ * can be mapped in a single buffer are processed in consecutive regions.
+ * <p>
+ * Each entry is terminated by a delimiter byte (by default a newline) or the
+ * end of the file. When the delimiter is a newline, a preceding carriage
+ * return is ignored. Empty entries are skipped. Tickets must be ASCII encoded.
+ * <p>
+ * Instances of this class are safe for use by multiple threads, though any
+ * single scan is performed on the calling thread.
+ *
+ * @author Tom Gibara
+ *
+ * @param <R>
+ *            the type of origin information recorded
+ * @param <D>
+ *            the type of data information recorded
+ */
+
+public final class TicketScanner<R, D> {
+
+	// statics
+
+	private static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+	/**
+	 * Receives the entries of a file as they are scanned. Positions are the
+	 * byte offsets of the entries within the file.
+	 *
+	 * @param <R>
+	 *            the type of origin information recorded
+	 * @param <D>
+	 *            the type of data information recorded
+	 */
+
+	public interface Listener<R, D> {
+
+		/**
+		 * Called with each ticket successfully decoded from the file.
+		 *
+		 * @param position
+		 *            the position of the ticket in the file
+		 * @param ticket
+		 *            the decoded ticket
+		 */
+
+		void ticketDecoded(long position, Ticket<R, D> ticket);
+
+		/**
+		 * Called for each entry in the file that could not be decoded.
+		 *
+		 * @param position
+		 *            the position of the entry in the file
+		 * @param e
+		 *            the reason the entry could not be decoded
+		 */
+
+		void ticketInvalid(long position, TicketException e);
+
+	}
+
+	// fields
+
+	private final TicketFactory<R, D> factory;
+	private final byte delimiter;
+	private final int regionSize;
+
+	// constructors
+
+	/**
+	 * Creates a scanner for newline delimited tickets.
+	 *
+	 * @param factory
+	 *            the factory used to decode the tickets
+	 */
+
+	public TicketScanner(TicketFactory<R, D> factory) {
+		this(factory, (byte) '\n');
+	}
+
+	/**
+	 * Creates a scanner for tickets separated by the specified delimiter.
+	 *
+	 * @param factory
+	 *            the factory used to decode the tickets
+	 * @param delimiter
+	 *            the byte that terminates each ticket
+	 */
+
+	public TicketScanner(TicketFactory<R, D> factory, byte delimiter) {
+		this(factory, delimiter, DEFAULT_REGION_SIZE);
+	}
+
+	TicketScanner(TicketFactory<R, D> factory, byte delimiter, int regionSize) {
+		if (factory == null) throw new IllegalArgumentException("null factory");
+		if (regionSize < 1) throw new IllegalArgumentException("non-positive regionSize");
+		this.factory = factory;
+		this.delimiter = delimiter;
+		this.regionSize = regionSize;
+	}
+
+	// accessors
+
+	/**
+	 * The factory with which this scanner decodes tickets.
+	 *
+	 * @return the ticket factory
+	 */
+
+	public TicketFactory<R, D> getFactory() {
+		return factory;
+	}
+
+	/**
+	 * The byte which separates tickets in the scanned files.
+	 *
+	 * @return the delimiter
+	 */
+
+	public byte getDelimiter() {
+		return delimiter;
+	}
+
+	// methods
+
+	/**
+	 * Decodes every ticket in a file, reporting each to the supplied listener.
+	 *
+	 * @param path
+	 *            the file to be scanned
+	 * @param listener
+	 *            receives the decoded tickets and invalid entries, may be null
+	 * @return statistics for the scanned file
+	 * @throws IOException
+	 *             if the file could not be read
+	 * @throws IllegalArgumentException
+	 *             if the path is null
+	 */
+
+	public TicketScanStats scan(Path path, Listener<R, D> listener) throws IOException {
+		if (path == null) throw new IllegalArgumentException("null path");
+		return new Scan(listener, true).scan(path);
+	}
+
+	/**
+	 * Validates every ticket in a file. This is considerably cheaper than
+	 * decoding each ticket, see {@link TicketFactory#isValid(CharSequence)}.
+	 *
+	 * @param path
+	 *            the file to be scanned
+	 * @return statistics for the scanned file
+	 * @throws IOException
+	 *             if the file could not be read
+	 * @throws IllegalArgumentException
+	 *             if the path is null
+	 */
+
+	public TicketScanStats validate(Path path) throws IOException {
+		if (path == null) throw new IllegalArgumentException("null path");
+		return new Scan(null, false).scan(path);
+	}
+
+	// inner classes
+
+	// holds the state of a single scan
+	private final class Scan {
+
+		private final Listener<R, D> listener;
+		private final boolean decode;
+		private final TicketFormat.Ascii view = new TicketFormat.Ascii(null, 0, 0);
+		private final long[] specCounts;
+		private long validCount = 0L;
+		private long invalidCount = 0L;
+
+		Scan(Listener<R, D> listener, boolean decode) {
+			this.listener = listener;
+			this.decode = decode;
+			specCounts = new long[factory.specs.length];
+		}
+
+		TicketScanStats scan(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				long start = 0L;
+				// true while skipping the remainder of an entry that has already been reported
+				boolean skipping = false;
+				while (start < size) {
+					int length = (int) Math.min(regionSize, size - start);
+					MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, length);
+					boolean last = start + length == size;
+					int from = 0;
+					int i = 0;
+					if (skipping) {
+						while (i < length && buffer.get(i) != delimiter) i++;
+						if (i == length) {
+							start += length;
+							continue;
+						}
+						from = ++i;
+						skipping = false;
+					}
+					for (; i < length; i++) {
+						if (buffer.get(i) == delimiter) {
+							entry(buffer, start, from, i);
+							from = i + 1;
+						}
+					}
+					if (last) {
+						// the final entry
+						entry(buffer, start, from, length);
+						start += length;
+					} else if (from == 0) {
+						// an entry too long to be a ticket is reported once, and the rest of it skipped
+						entry(buffer, start, from, length);
+						skipping = true;
+						start += length;
+					} else {
+						// the unterminated entry is rescanned from the next region
+						start += from;
+					}
+				}
+			}
+			return new TicketScanStats(validCount, invalidCount, specCounts.clone());
+		}
+
+		private void entry(MappedByteBuffer buffer, long start, int from, int to) {
+			if (delimiter == '\n' && to > from && buffer.get(to - 1) == '\r') to--;
+			if (to == from) return;
+			view.set(buffer, from, to - from);
+			if (decode) {
+				Ticket<R, D> ticket;
+				try {
+					ticket = factory.decodeTicket(view);
+				} catch (TicketException e) {
+					invalidCount ++;
+					if (listener != null) listener.ticketInvalid(start + from, e);
+					return;
+				}
+				validCount ++;
+				specCounts[factory.specNumber(ticket.getSpecification())] ++;
+				if (listener != null) listener.ticketDecoded(start + from, ticket);
+			} else {
+				int number = factory.validSpecNumber(view);
+				if (number < 0) {
+					invalidCount ++;
+				} else {
+					validCount ++;
+					specCounts[number] ++;
+				}
+			}
+		}
+
+	}
+
+}
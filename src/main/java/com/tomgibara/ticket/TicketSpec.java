@@ -21,7 +21,8 @@ import java.util.Calendar;
 import java.util.TimeZone;
 
 import com.tomgibara.bits.BitVector;
-import com.tomgibara.bits.BitVectorWriter;
+import com.tomgibara.coding.CodedReader;
+import com.tomgibara.coding.CodedWriter;
 
 /**
  * Specifies the structure of tickets created by a {@link TicketFactory}.
@@ -34,7 +35,9 @@ public final class TicketSpec implements Serializable {
 	private static final long serialVersionUID = -4576985625208064336L;
 
 	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
-	private static final State DEFAULT_STATE = new State(UTC, Ticket.Granularity.SECOND, 2015, 0);
+	private static final State DEFAULT_STATE = new State(UTC, Ticket.Granularity.SECOND, 2015, 0, 0, 0);
+	// fixed width fields must hold non-negative longs
+	private static final int MAX_FIELD_LENGTH = 63;
 	private static final TicketSpec DEFAULT = new TicketSpec(DEFAULT_STATE);
 	private static final BitVector NO_BITS = new BitVector(0);
 
@@ -46,33 +49,46 @@ public final class TicketSpec implements Serializable {
 		private final Ticket.Granularity granularity;
 		private final int originYear;
 		private final int hashLength;
+		// zero for variable length fields, also the value in states serialized before fixed lengths
+		private final int timestampLength;
+		private final int sequenceLength;
 
-		private State(TimeZone timeZone, Ticket.Granularity granularity, int originYear, int hashLength) {
+		private State(TimeZone timeZone, Ticket.Granularity granularity, int originYear, int hashLength, int timestampLength, int sequenceLength) {
 			this.timeZone = timeZone;
 			this.granularity = granularity;
 			this.originYear = originYear;
 			this.hashLength = hashLength;
+			this.timestampLength = timestampLength;
+			this.sequenceLength = sequenceLength;
 		}
 
 		State setTimeZone(TimeZone timeZone) {
-			return new State(timeZone, granularity, originYear, hashLength);
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
 		}
 
 		State setGranularity(Ticket.Granularity granularity) {
-			return new State(timeZone, granularity, originYear, hashLength);
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
 		}
 
 		State setOriginYear(int originYear) {
-			return new State(timeZone, granularity, originYear, hashLength);
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
 		}
 
 		State setHashLength(int hashLength) {
-			return new State(timeZone, granularity, originYear, hashLength);
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
+		}
+
+		State setTimestampLength(int timestampLength) {
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
+		}
+
+		State setSequenceLength(int sequenceLength) {
+			return new State(timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength);
 		}
 
 		@Override
 		public int hashCode() {
-			return timeZone.hashCode() + 31 * (granularity.hashCode() + 31 * (originYear + 31 * hashLength));
+			return timeZone.hashCode() + 31 * (granularity.hashCode() + 31 * (originYear + 31 * (hashLength + 31 * (timestampLength + 31 * sequenceLength))));
 		}
 
 		@Override
@@ -82,6 +98,8 @@ public final class TicketSpec implements Serializable {
 			State that = (State) obj;
 			if (this.originYear != that.originYear) return false;
 			if (this.hashLength != that.hashLength) return false;
+			if (this.timestampLength != that.timestampLength) return false;
+			if (this.sequenceLength != that.sequenceLength) return false;
 			if (this.granularity != that.granularity) return false;
 			if (!this.timeZone.equals(that.timeZone)) return false;
 			return true;
@@ -90,8 +108,8 @@ public final class TicketSpec implements Serializable {
 		@Override
 		public String toString() {
 			return String.format(
-					"timeZone: %s, granularity: %s, originYear: %d, hashLength: %d",
-					timeZone, granularity, originYear, hashLength
+					"timeZone: %s, granularity: %s, originYear: %d, hashLength: %d, timestampLength: %d, sequenceLength: %d",
+					timeZone, granularity, originYear, hashLength, timestampLength, sequenceLength
 					);
 		}
 
@@ -185,6 +203,53 @@ public final class TicketSpec implements Serializable {
 			return this;
 		}
 
+		/**
+		 * Specifies the number of bits in which ticket timestamps are recorded.
+		 * By default timestamps are recorded with a variable length coding
+		 * which favours small values. Fixing the number of bits (together with
+		 * that of the sequence number) gives tickets without origin or data a
+		 * constant length, and allows the fields to be read directly. Tickets
+		 * cannot be created for timestamps which precede the origin year, or
+		 * which exceed the range of the field.
+		 *
+		 * @param timestampLength
+		 *            the number of bits in the timestamp, or zero for a
+		 *            variable length timestamp
+		 * @return the builder
+		 * @throws IllegalArgumentException
+		 *             if the length is negative, or exceeds 63 bits
+		 * @see #setSequenceLength(int)
+		 */
+
+		public Builder setTimestampLength(int timestampLength) {
+			if (timestampLength < 0) throw new IllegalArgumentException("timestampLength negative");
+			if (timestampLength > MAX_FIELD_LENGTH) throw new IllegalArgumentException("timestampLength too large");
+			state = state.setTimestampLength(timestampLength);
+			return this;
+		}
+
+		/**
+		 * Specifies the number of bits in which ticket sequence numbers are
+		 * recorded. By default sequence numbers are recorded with a variable
+		 * length coding which favours small values. Tickets cannot be created
+		 * for sequence numbers which exceed the range of the field.
+		 *
+		 * @param sequenceLength
+		 *            the number of bits in the sequence number, or zero for a
+		 *            variable length sequence number
+		 * @return the builder
+		 * @throws IllegalArgumentException
+		 *             if the length is negative, or exceeds 63 bits
+		 * @see #setTimestampLength(int)
+		 */
+
+		public Builder setSequenceLength(int sequenceLength) {
+			if (sequenceLength < 0) throw new IllegalArgumentException("sequenceLength negative");
+			if (sequenceLength > MAX_FIELD_LENGTH) throw new IllegalArgumentException("sequenceLength too large");
+			state = state.setSequenceLength(sequenceLength);
+			return this;
+		}
+
 		/**
 		 * Builds a new specification using the values recorded by this builder.
 		 *
@@ -270,6 +335,43 @@ public final class TicketSpec implements Serializable {
 		return state.hashLength;
 	}
 
+	/**
+	 * The specified number of bits in which timestamps are recorded.
+	 *
+	 * @return the timestamp length, or zero if timestamps have a variable
+	 *         length
+	 */
+
+	public int getTimestampLength() {
+		return state.timestampLength;
+	}
+
+	/**
+	 * The specified number of bits in which sequence numbers are recorded.
+	 *
+	 * @return the sequence number length, or zero if sequence numbers have a
+	 *         variable length
+	 */
+
+	public int getSequenceLength() {
+		return state.sequenceLength;
+	}
+
+	/**
+	 * Whether tickets created with this specification sort by timestamp and
+	 * then sequence number. This is the case when both fields have a fixed
+	 * length, and the tickets are encoded with a sortable format. Tickets
+	 * with different specifications do not sort together.
+	 *
+	 * @return true if the timestamp and sequence number have fixed lengths
+	 * @see TicketFormat#isSortable()
+	 * @see TicketMachine#timeBound(long)
+	 */
+
+	public boolean isSortable() {
+		return state.timestampLength != 0 && state.sequenceLength != 0;
+	}
+
 	// public methods
 
 	/**
@@ -309,8 +411,7 @@ public final class TicketSpec implements Serializable {
 
 	// utility methods
 
-	long timestamp() {
-		long now = System.currentTimeMillis();
+	long timestamp(long now) {
 		long millis = now - originMillis;
 		return state.granularity.toTimestamp(millis);
 	}
@@ -326,15 +427,51 @@ public final class TicketSpec implements Serializable {
 		return calendar.getTimeInMillis();
 	}
 
-	int writeHash(KeccakDigest digest, BitVectorWriter writer) {
-		return state.hashLength == 0 ? 0 : hash(digest, writer.toImmutableBitVector()).writeTo(writer);
+	void writeTimestamp(CodedWriter w, long timestamp) throws TicketException {
+		int length = state.timestampLength;
+		if (length == 0) {
+			w.writeLong(timestamp);
+		} else {
+			if (timestamp < 0L || timestamp >>> length != 0L) throw new TicketException(TicketException.Reason.TIMESTAMP, "Ticket timestamp exceeds fixed length");
+			w.getWriter().write(timestamp, length);
+		}
+	}
+
+	void writeSequenceNumber(CodedWriter w, long seq) throws TicketException {
+		int length = state.sequenceLength;
+		if (length == 0) {
+			w.writePositiveLong(seq);
+		} else {
+			if (seq >>> length != 0L) throw new TicketException(TicketException.Reason.SEQUENCE, "Ticket sequence number exceeds fixed length");
+			w.getWriter().write(seq, length);
+		}
+	}
+
+	long readTimestamp(CodedReader r) {
+		int length = state.timestampLength;
+		return length == 0 ? r.readLong() : r.getReader().readLong(length);
+	}
+
+	long readSequenceNumber(CodedReader r) {
+		int length = state.sequenceLength;
+		return length == 0 ? r.readPositiveLong() : r.getReader().readLong(length);
+	}
+
+	// the supplied digest is consumed by this method, and its output is written to the supplied bytes
+	int writeHash(KeccakDigest digest, LongBitWriter writer, byte[] out) {
+		int length = state.hashLength;
+		if (length == 0) return 0;
+		digest.update(writer.toByteArray(), 0, writer.byteLength());
+		digest.doFinal(out, 0);
+		writer.writeBits(out, length);
+		return length;
 	}
 
+	// the supplied digest is consumed by this method
 	BitVector hash(KeccakDigest digest, BitVector vector) {
 		int length = state.hashLength;
 		if (length == 0) return NO_BITS;
 
-		digest = new KeccakDigest(digest);
 		byte[] bytes = vector.toByteArray();
 		digest.update(bytes, 0, bytes.length);
 		byte[] hash = new byte[ digest.getDigestSize() ];
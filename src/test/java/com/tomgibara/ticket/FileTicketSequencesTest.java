@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class FileTicketSequencesTest extends TestCase {
+
+	interface LongOrigin {
+
+		@TicketField(0)
+		long getId();
+
+	}
+
+	private Path path;
+
+	@Override
+	protected void setUp() throws Exception {
+		path = Files.createTempFile("sequences", ".dat");
+		Files.delete(path);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(path);
+	}
+
+	public void testRestart() throws IOException {
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().newFactory();
+		TicketBasis<Void> basis = factory.machine().getBasis();
+		Set<Long> issued = new HashSet<Long>();
+
+		FileTicketSequences<Void> sequences = new FileTicketSequences<Void>(path, 10);
+		TicketSequence sequence = sequences.getSequence(basis);
+		assertSame(sequence, sequences.getSequence(basis));
+		assertEquals(0L, sequence.nextSequenceNumber(100L));
+		for (int i = 1; i < 25; i++) {
+			assertTrue(issued.add(sequence.nextSequenceNumber(100L)));
+		}
+		sequences.close();
+		try {
+			sequence.nextSequenceNumber(100L);
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+
+		// a restart must not reissue numbers for the same timestamp
+		sequences = new FileTicketSequences<Void>(path, 10);
+		sequence = sequences.getSequence(basis);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(issued.add(sequence.nextSequenceNumber(100L)));
+		}
+		// the clock advances then regresses
+		assertEquals(0L, sequence.nextSequenceNumber(101L));
+		for (int i = 0; i < 25; i++) {
+			assertTrue(issued.add(sequence.nextSequenceNumber(100L)));
+		}
+		sequences.close();
+
+		sequences = new FileTicketSequences<Void>(path, 10);
+		sequence = sequences.getSequence(basis);
+		assertTrue(sequence.nextSequenceNumber(101L) > 0L);
+		assertTrue(issued.add(sequence.nextSequenceNumber(100L)));
+		sequences.close();
+	}
+
+	public void testManyOrigins() throws IOException {
+		TicketConfig<LongOrigin, Void> config = TicketConfig.getDefault().withOriginType(LongOrigin.class);
+		Set<String> tickets = new HashSet<String>();
+		for (int run = 0; run < 3; run++) {
+			try (FileTicketSequences<LongOrigin> sequences = new FileTicketSequences<LongOrigin>(path, 4)) {
+				try {
+					new FileTicketSequences<LongOrigin>(path);
+					fail();
+				} catch (IOException e) {
+					/* expected */
+				}
+				TicketFactory<LongOrigin, Void> factory = config.newFactory(sequences);
+				// enough origins to require the file to grow
+				for (long origin = 0; origin < 300; origin++) {
+					for (Ticket<LongOrigin, Void> ticket : factory.machineForOriginValues(origin).tickets(3)) {
+						assertTrue(tickets.add(ticket.toString()));
+					}
+				}
+			}
+		}
+		assertTrue(Files.size(path) > 4096);
+	}
+
+}
@@ -44,6 +44,31 @@ public class HashTest extends TestCase {
 		expect("54927ada38dd4928ba3bc8d40059dbe1ba68ed7f8e3a6fb3b41492f3", digest2); // "ab"
 	}
 
+	public void testKeccakDigestMultipleBlocks() {
+		// input spans more than two blocks and is absorbed from unaligned offsets
+		byte[] bytes = new byte[300];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+		KeccakDigest digest = new KeccakDigest(224);
+		digest.update(bytes, 0, 5);
+		digest.update(bytes, 5, bytes.length - 5);
+		expect("1bd221d96ecd2969578ddea84e63d99b12d9faddf816dcb87a56e09a", digest);
+		// digest is reusable after being finalized
+		digest.update(bytes, 0, bytes.length);
+		expect("1bd221d96ecd2969578ddea84e63d99b12d9faddf816dcb87a56e09a", digest);
+	}
+
+	public void testKeccakDigestRestore() {
+		KeccakDigest keyed = new KeccakDigest(224);
+		keyed.update((byte)'a');
+		KeccakDigest digest = new KeccakDigest(224);
+		digest.update((byte)'x');
+		digest.restore(keyed);
+		digest.update((byte)'b');
+		expect("54927ada38dd4928ba3bc8d40059dbe1ba68ed7f8e3a6fb3b41492f3", digest); // "ab"
+		digest.restore(keyed);
+		expect("7cf87d912ee7088d30ec23f8e7100d9319bff090618b439d3fe91308", digest); // "a"
+	}
+
 	private void expect(String expected, KeccakDigest digest) {
 		byte[] result = new byte[digest.getDigestSize()];
 		digest.doFinal(result, 0);
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import junit.framework.TestCase;
+
+public class TicketCacheTest extends TestCase {
+
+	private static class Cache extends TicketCache<Integer, String> {
+
+		int capacity;
+		long idleTime;
+
+		Cache(int capacity, long idleTime) {
+			this(capacity, idleTime, TicketClocks.deterministic(0L, 0L));
+		}
+
+		Cache(int capacity, long idleTime, TicketClock clock) {
+			super(clock);
+			this.capacity = capacity;
+			this.idleTime = idleTime;
+		}
+
+		@Override
+		int capacity() {
+			return capacity;
+		}
+
+		@Override
+		long idleTime() {
+			return idleTime;
+		}
+
+	}
+
+	public void testCapacity() {
+		Cache cache = new Cache(10, 0L);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, Integer.toString(i));
+			assertTrue(cache.size() <= 10);
+		}
+		assertEquals("99", cache.get(99));
+		cache.touch(99, "99");
+		assertEquals(10, cache.size());
+
+		cache.capacity = 0;
+		assertNull(cache.get(200));
+		cache.put(200, "200");
+		assertEquals(0, cache.size());
+	}
+
+	public void testTouch() {
+		Cache cache = new Cache(10, 0L);
+		String value = "value";
+		cache.touch(1, value);
+		assertSame(value, cache.get(1));
+		String other = new String(value);
+		cache.touch(1, other);
+		assertSame(other, cache.get(1));
+	}
+
+	public void testIdle() {
+		TicketClocks.Deterministic clock = TicketClocks.deterministic(1000L, 0L);
+		Cache cache = new Cache(10, 5L, clock);
+		cache.put(1, "1");
+		assertEquals("1", cache.get(1));
+		// entries are retained up to the idle time
+		clock.advance(5L);
+		assertEquals("1", cache.get(1));
+		clock.advance(6L);
+		cache.put(2, "2");
+		assertEquals(1, cache.size());
+		assertNull(cache.get(1));
+		assertEquals("2", cache.get(2));
+	}
+
+}
@@ -16,11 +16,21 @@
  */
 package com.tomgibara.ticket;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -67,6 +77,41 @@ public class TicketFactoryTest extends TestCase {
 		} while (System.currentTimeMillis() < finish);
 	}
 
+	public void testBatch() {
+		TicketFactory<Void, SessionData> factory = TicketConfig.getDefault()
+				.withDataType(SessionData.class)
+				.withSpecifications(TicketSpec.newDefaultBuilder().setHashLength(32).build())
+				.newFactory();
+		TicketMachine<Void, SessionData> machine = factory.machine();
+		assertTrue(machine.tickets(0).isEmpty());
+		List<Ticket<Void, SessionData>> tickets = machine.tickets(1000);
+		assertEquals(1000, tickets.size());
+		Set<String> strings = new HashSet<String>();
+		for (Ticket<Void, SessionData> ticket : tickets) {
+			assertTrue(strings.add(ticket.toString()));
+			assertEquals(ticket, factory.decodeTicket(ticket.toString()));
+		}
+
+		List<SessionData> data = new ArrayList<SessionData>();
+		data.add(null);
+		for (int i = 1; i < 10; i++) {
+			final long id = i;
+			data.add(new SessionData() {
+				@Override
+				public long getSessionId() {
+					return id;
+				}
+			});
+		}
+		tickets = machine.ticketsData(data);
+		assertEquals(data.size(), tickets.size());
+		for (int i = 0; i < tickets.size(); i++) {
+			Ticket<Void, SessionData> ticket = factory.decodeTicket(tickets.get(i).toString());
+			assertEquals(i, ticket.getData().getSessionId());
+			assertTrue(strings.add(ticket.toString()));
+		}
+	}
+
 	@SuppressWarnings("serial")
 	static class ShortPolicy extends DefaultTicketPolicy {
 
@@ -77,6 +122,316 @@ public class TicketFactoryTest extends TestCase {
 
 	}
 
+	@SuppressWarnings("serial")
+	static class CachePolicy extends DefaultTicketPolicy {
+
+		private final long maxAge;
+
+		CachePolicy(long maxAge) {
+			this.maxAge = maxAge;
+		}
+
+		@Override
+		public int getTicketCacheSize() {
+			return 10;
+		}
+
+		@Override
+		public long getTicketCacheMaxAge() {
+			return maxAge;
+		}
+
+	}
+
+	public void testClock() {
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().newFactory();
+		assertSame(TicketClocks.system(), factory.getClock());
+		long origin = TicketSpec.getDefault().timestampToMillis(0L);
+		TicketClocks.Deterministic clock = TicketClocks.deterministic(origin + 5000L, 500L);
+		factory.setClock(clock);
+		TicketMachine<Void, Void> machine = factory.machine();
+		Ticket<Void, Void> t1 = machine.ticket();
+		Ticket<Void, Void> t2 = machine.ticket();
+		Ticket<Void, Void> t3 = machine.ticket();
+		assertEquals(origin + 5000L, t1.getTimestamp());
+		assertEquals(origin + 5000L, t2.getTimestamp());
+		assertEquals(origin + 6000L, t3.getTimestamp());
+		assertEquals(1L, t2.getSequenceNumber());
+		assertEquals(0L, t3.getSequenceNumber());
+		clock.setMillis(origin);
+		assertEquals(origin, machine.ticket().getTimestamp());
+		factory.setClock(null);
+		assertSame(TicketClocks.system(), factory.getClock());
+
+		TicketClock coarse = TicketClocks.coarse(Granularity.SECOND);
+		assertSame(coarse, TicketClocks.coarse(Granularity.SECOND));
+		assertTrue(coarse.millis() <= System.currentTimeMillis());
+		assertEquals(1000L, ((TicketClocks.Coarse) coarse).period);
+		assertEquals(60000L, ((TicketClocks.Coarse) TicketClocks.coarse(Granularity.HOUR)).period);
+		try {
+			TicketClocks.coarse(Granularity.MILLISECOND);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+	}
+
+	public void testCoarseClock() {
+		long second = 1420070400000L; // the start of 2015
+		TicketClocks.Deterministic source = TicketClocks.deterministic(second + 250L, 0L);
+		TicketClocks.Coarse coarse = new TicketClocks.Coarse(1000L, source);
+		assertEquals(second + 250L, coarse.millis());
+		// the time is held between updates
+		source.advance(500L);
+		assertEquals(second + 250L, coarse.millis());
+		// updates report the delay until the next period starts
+		assertEquals(250L, coarse.update());
+		assertEquals(second + 750L, coarse.millis());
+		source.setMillis(second + 1000L);
+		assertEquals(1000L, coarse.update());
+		assertEquals(second + 1000L, coarse.millis());
+		source.setMillis(second + 1999L);
+		assertEquals(1L, coarse.update());
+		assertEquals(second + 1999L, coarse.millis());
+	}
+
+	public void testMetrics() {
+		TicketSpec spec = TicketSpec.newDefaultBuilder().setHashLength(32).build();
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(spec).newFactory();
+		assertNull(factory.getListener());
+		TicketMetrics metrics = new TicketMetrics();
+		factory.setListener(metrics);
+		TicketMachine<Void, Void> machine = factory.machine();
+		String str = machine.ticket().toString();
+		machine.tickets(10);
+		assertEquals(11L, metrics.getIssuedCount(machine.getBasis()));
+		assertEquals(11L, metrics.getHashingLatency().getCount());
+		assertTrue(metrics.getHashingLatency().getTotalNanos() > 0L);
+		assertTrue(metrics.getFormattingLatency().getPercentileNanos(100.0) > 0L);
+
+		factory.decodeTicket(str);
+		factory.decodeTicketLazily(str);
+		assertEquals(2L, metrics.getDecodedCount(0));
+		assertEquals(0L, metrics.getDecodedCount(1));
+		reject(factory, str + "\u00e9");
+		// alter a character within the hash, skipping the last which includes padding
+		char[] chars = str.replaceAll("[-z]+$", "").toCharArray();
+		int i = chars.length - 2;
+		if (chars[i] == '-') i--;
+		chars[i] = chars[i] == '0' ? '1' : '0';
+		reject(factory, new String(chars));
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() <= factory.getPolicy().getTicketCharLimit()) sb.append(str);
+		reject(factory, sb.toString());
+		assertEquals(1L, metrics.getRejectedCount(TicketException.Reason.CHARACTER));
+		assertEquals(1L, metrics.getRejectedCount(TicketException.Reason.HASH));
+		assertEquals(1L, metrics.getRejectedCount(TicketException.Reason.LENGTH));
+		assertEquals(0L, metrics.getRejectedCount(TicketException.Reason.VERSION));
+
+		factory.setListener(null);
+		machine.ticket();
+		factory.decodeTicket(str);
+		assertEquals(11L, metrics.getIssuedCount(machine.getBasis()));
+		assertEquals(2L, metrics.getDecodedCount(0));
+	}
+
+	private static void reject(TicketFactory<?, ?> factory, String str) {
+		try {
+			factory.decodeTicket(str);
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+	}
+
+	public void testNonce() {
+		// the nonce must remain identical to that previously generated with java.util.Random
+		Random r = new Random(0L);
+		byte[] digest = new byte[TicketFactory.DIGEST_SIZE / 8];
+		for (int i = 0; i < 1000; i++) {
+			r.nextBytes(digest);
+			long seed = ByteBuffer.wrap(digest, digest.length - 8, 8).getLong();
+			Random random = new Random(seed);
+			int count = 16 + random.nextInt(16);
+			int bits = random.nextInt();
+			long bit = 1L << count;
+			assertEquals(bit | bits & bit - 1L, TicketMachine.generateNonce(digest));
+		}
+	}
+
+	public void testFixedLength() {
+		TicketSpec spec = TicketSpec.newDefaultBuilder()
+				.setTimestampLength(32)
+				.setSequenceLength(8)
+				.setHashLength(20)
+				.build();
+		assertEquals(32, spec.getTimestampLength());
+		assertEquals(8, spec.getSequenceLength());
+		assertFalse(spec.equals(spec.newBuilder().setSequenceLength(0).build()));
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(spec).newFactory();
+		long origin = spec.timestampToMillis(0L);
+		TicketClocks.Deterministic clock = TicketClocks.deterministic(origin + 1000L, 0L);
+		factory.setClock(clock);
+		TicketMachine<Void, Void> machine = factory.machine();
+		int length = machine.ticket().toString().length();
+		for (int i = 1; i < 256; i++) {
+			Ticket<Void, Void> ticket = machine.ticket();
+			assertEquals(length, ticket.toString().length());
+			assertEquals(i, ticket.getSequenceNumber());
+			assertEquals(ticket, factory.decodeTicket(ticket.toString()));
+		}
+		try {
+			machine.ticket();
+			fail();
+		} catch (TicketException e) {
+			assertEquals(TicketException.Reason.SEQUENCE, e.getReason());
+		}
+		clock.setMillis(origin + 1000L * 0xffffffffL);
+		Ticket<Void, Void> last = machine.ticket();
+		assertEquals(length, last.toString().length());
+		assertEquals(last, factory.decodeTicket(last.toString()));
+		clock.advance(1000L);
+		try {
+			machine.ticket();
+			fail();
+		} catch (TicketException e) {
+			assertEquals(TicketException.Reason.TIMESTAMP, e.getReason());
+		}
+	}
+
+	public void testLargeSequenceNumbers() {
+		final long large = (1L << 40) + 3L;
+		TicketSequences<Void> sequences = new TicketSequences<Void>() {
+			@Override
+			public TicketSequence getSequence(TicketBasis<Void> origin) {
+				return new TicketSequence() {
+					@Override
+					public long nextSequenceNumber(long timestamp) {
+						return large;
+					}
+				};
+			}
+		};
+		TicketSpec fixed = TicketSpec.newDefaultBuilder().setSequenceLength(48).build();
+		for (TicketSpec spec : new TicketSpec[] { TicketSpec.getDefault(), fixed }) {
+			TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(spec).newFactory(sequences);
+			Ticket<Void, Void> ticket = factory.machine().ticket();
+			assertEquals(large, ticket.getSequenceNumber());
+			assertEquals(large, factory.decodeTicket(ticket.toString()).getSequenceNumber());
+		}
+	}
+
+	public void testSortable() {
+		assertTrue(TicketAlphabet.BASE32.isSortable());
+		assertFalse(TicketAlphabet.BASE64_URL.isSortable());
+		assertFalse(TicketAlphabet.BASE58.isSortable());
+		try {
+			TicketConfig.getDefault().newFactory().machine().timeBound(System.currentTimeMillis());
+			fail();
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		TicketSpec spec = TicketSpec.newDefaultBuilder()
+				.setTimestampLength(32)
+				.setSequenceLength(8)
+				.setHashLength(16)
+				.build();
+		assertTrue(spec.isSortable());
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(spec).newFactory();
+		factory.setFormat(new TicketFormat(true, 4, '-', true));
+		long origin = spec.timestampToMillis(0L);
+		factory.setClock(TicketClocks.deterministic(origin + 1000L, 300L));
+		TicketMachine<Void, Void> machine = factory.machine();
+		List<Ticket<Void, Void>> tickets = new ArrayList<Ticket<Void,Void>>();
+		List<String> strings = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			Ticket<Void, Void> ticket = machine.ticket();
+			tickets.add(ticket);
+			strings.add(ticket.toString());
+		}
+
+		List<String> sortedStrings = new ArrayList<String>(strings);
+		Collections.shuffle(sortedStrings, new Random(0L));
+		Collections.sort(sortedStrings);
+		assertEquals(strings, sortedStrings);
+		List<Ticket<Void, Void>> sortedTickets = new ArrayList<Ticket<Void,Void>>(tickets);
+		Collections.shuffle(sortedTickets, new Random(0L));
+		Collections.sort(sortedTickets);
+		assertEquals(tickets, sortedTickets);
+
+		long from = origin + 10000L;
+		long to = origin + 30000L;
+		String lower = machine.timeBound(from);
+		String upper = machine.timeBound(to);
+		int count = 0;
+		for (Ticket<Void, Void> ticket : tickets) {
+			String str = ticket.toString();
+			boolean inWindow = ticket.getTimestamp() >= from && ticket.getTimestamp() < to;
+			assertEquals(inWindow, lower.compareTo(str) <= 0 && str.compareTo(upper) < 0);
+			if (inWindow) count++;
+		}
+		assertTrue(count > 0);
+	}
+
+	public void testTicketCache() {
+		TicketSpec spec = TicketSpec.newDefaultBuilder().setGranularity(Granularity.HOUR).build();
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(spec).newFactory();
+		// tickets are issued half an hour into their hour
+		long hour = Granularity.HOUR.toMillis(1L);
+		TicketClocks.Deterministic clock = TicketClocks.deterministic(spec.timestampToMillis(100000L) + hour / 2, 0L);
+		factory.setClock(clock);
+		String str = factory.machine().ticket().toString();
+		Ticket<Void, Void> ticket = factory.decodeTicket(str);
+		assertNotSame(ticket, factory.decodeTicket(str));
+		assertEquals(0, factory.getTicketCacheStats().getSize());
+
+		factory.setPolicy(new CachePolicy(0L));
+		ticket = factory.decodeTicket(str);
+		assertSame(ticket, factory.decodeTicket(str));
+		assertSame(ticket, factory.decodeTicketLazily(str));
+		assertTrue(factory.isValid(str));
+		TicketCacheStats stats = factory.getTicketCacheStats();
+		assertEquals(3, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getSize());
+
+		// tickets older than the maximum age are not returned from the cache
+		factory.setPolicy(new CachePolicy(hour));
+		assertSame(ticket, factory.decodeTicket(str));
+		clock.advance(hour);
+		assertNotSame(ticket, factory.decodeTicket(str));
+		assertEquals(0, factory.getTicketCacheStats().getSize());
+		assertEquals(1, factory.getTicketCacheStats().getEvictionCount());
+
+		// the length limit applies to cached tickets
+		factory.setPolicy(new CachePolicy(0L));
+		factory.decodeTicket(str);
+		factory.setPolicy(new ShortPolicy() {
+			@Override
+			public int getTicketCacheSize() {
+				return 10;
+			}
+		});
+		try {
+			factory.decodeTicket(str);
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+
+		// tickets with array values are not shared between callers
+		TicketFactory<EnumArrayOrigin, Void> arrayFactory = TicketConfig.getDefault()
+				.withOriginType(EnumArrayOrigin.class)
+				.newFactory();
+		arrayFactory.setPolicy(new CachePolicy(0L));
+		str = arrayFactory.machineForOriginValues(new Object[] { new BasicEnum[] { BasicEnum.A } }).ticket().toString();
+		Ticket<EnumArrayOrigin, Void> arrayTicket = arrayFactory.decodeTicket(str);
+		arrayTicket.getOrigin().getBasic()[0] = BasicEnum.C;
+		assertEquals(BasicEnum.A, arrayFactory.decodeTicket(str).getOrigin().getBasic()[0]);
+		assertEquals(0, arrayFactory.getTicketCacheStats().getSize());
+	}
+
 	public void testLengthLimit() {
 		TicketFactory<Void, Void> longFactory = TicketConfig.getDefault().newFactory();
 		TicketFactory<Void, Void> shortFactory = TicketConfig.getDefault().newFactory();
@@ -98,6 +453,24 @@ public class TicketFactoryTest extends TestCase {
 		}
 	}
 
+	public void testPlainPolicy() {
+		// policies need only implement the methods of the interface
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().newFactory();
+		factory.setPolicy(new TicketPolicy() {
+			@Override
+			public int getTicketCharLimit() {
+				return 100;
+			}
+			@Override
+			public int getMachineCacheSize() {
+				return 1;
+			}
+		});
+		Ticket<Void, Void> ticket = factory.machine().ticket();
+		assertEquals(ticket, factory.decodeTicket(ticket.toString()));
+		assertEquals(0, factory.getTicketCacheStats().getSize());
+	}
+
 	interface LongOrigin {
 
 		@TicketField(0)
@@ -311,6 +684,73 @@ public class TicketFactoryTest extends TestCase {
 
 	}
 
+	public void testAdaptedData() throws InterruptedException {
+		final TicketFactory<Void, MyData> factory = TicketConfig.getDefault()
+				.withDataType(MyData.class)
+				.newFactory();
+		final TicketMachine<Void, MyData> machine = factory.machine();
+		MyData data = factory.decodeTicket(machine.ticketDataValues(7L, true, "ACC").toString()).getData();
+		assertEquals(7L, data.getSessionId());
+		assertTrue(data.isAuthenticated());
+		assertEquals("ACC", data.accountNumber());
+		assertTrue(data.toString().contains("sessionId=7"));
+		assertEquals(data, data);
+
+		// adapted values are read concurrently through a shared proxy class
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final long offset = i * 1000L;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (long j = 0; j < 200; j++) {
+						long id = offset + j;
+						String account = Long.toString(id);
+						MyData data = factory.decodeTicket(machine.ticketDataValues(id, (id & 1) == 0, account).toString()).getData();
+						if (data.getSessionId() != id || data.isAuthenticated() != ((id & 1) == 0) || !data.accountNumber().equals(account)) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+	}
+
+	public void testUnadaptedValues() {
+		// values are read from client implementations through accessor handles
+		TicketFactory<MyOrigin, MyData> factory = TicketConfig.getDefault()
+				.withOriginType(MyOrigin.class)
+				.withDataType(MyData.class)
+				.newFactory();
+		TicketMachine<MyOrigin, MyData> machine = factory.machineForOrigin(new MyOriginImpl("site", 3, Env.TEST));
+		Ticket<MyOrigin, MyData> ticket = factory.decodeTicket(machine.ticketData(new MyDataImpl(9L, true)).toString());
+		assertEquals("site", ticket.getOrigin().getSite());
+		assertEquals(3, ticket.getOrigin().getNode());
+		assertEquals(Env.TEST, ticket.getOrigin().getEnv());
+		assertEquals(9L, ticket.getData().getSessionId());
+		assertTrue(ticket.getData().isAuthenticated());
+		assertEquals("", ticket.getData().accountNumber());
+
+		// adapted values round trip, and array values are not copied
+		TicketAdapter<EnumArrayOrigin> adapter = TicketAdapter.newData(EnumArrayOrigin.class);
+		final BasicEnum[] basic = { BasicEnum.B, BasicEnum.C };
+		Object[] values = adapter.unadapt(new EnumArrayOrigin() {
+			@Override
+			public BasicEnum[] getBasic() {
+				return basic;
+			}
+		});
+		assertSame(basic, values[0]);
+		assertSame(basic, adapter.unadapt(adapter.adapt(values))[0]);
+		assertSame(basic, adapter.adapt(values).getBasic());
+	}
+
 	public void testCustomFactory() {
 		TicketSpec spec = TicketSpec.newDefaultBuilder().setGranularity(Granularity.MINUTE).build();
 		TicketFactory<MyOrigin, MyData> factory = TicketConfig.getDefault()
@@ -424,6 +864,240 @@ public class TicketFactoryTest extends TestCase {
 		assertEquals(ticket, result);
 	}
 
+	public void testSecretLayout() {
+		// tickets with secret fields must remain identical to those issued previously
+		String[] expected = {
+				"2k7r9-kg28v-wgmbt-2nyk0-qe9uw-2fpba-72axf-t14pz",
+				"2k7r9-kg2j7-7c52x-hnnta-q3fmd-2kd9m-pbu0d-r9qcm-vg2tq-8zzzz",
+				"2k7r9-kg2t7-7c52x-jnneu-2607v-x89qg-nrhsm-n56wx-w3wb0",
+		};
+		TicketSpec spec = TicketSpec.newDefaultBuilder().setHashLength(40).build();
+		TicketConfig<MySecretOrigin, MySecretData> config = TicketConfig.getDefault()
+				.withOriginType(MySecretOrigin.class)
+				.withDataType(MySecretData.class)
+				.withSpecifications(spec);
+		TicketFactory<MySecretOrigin, MySecretData> factory = config.newFactory("Secret Passphraze!".getBytes(Charset.forName("ASCII")));
+		factory.setClock(TicketClocks.deterministic(spec.timestampToMillis(31536000L), 0L));
+		TicketMachine<MySecretOrigin, MySecretData> machine = factory.machineForOriginValues(432L, 24380L);
+		for (int i = 0; i < expected.length; i++) {
+			String str = machine.ticketDataValues(80L + i, 1000L * i).toString();
+			assertEquals(expected[i], str);
+			Ticket<MySecretOrigin, MySecretData> ticket = factory.decodeTicket(str);
+			assertEquals(1000L * i, ticket.getData().getSecret());
+			assertEquals(24380L, ticket.getOrigin().getSecret());
+		}
+	}
+
+	public void testAlphabets() {
+		TicketConfig<MySecretOrigin, MySecretData> config = TicketConfig.getDefault()
+				.withOriginType(MySecretOrigin.class)
+				.withDataType(MySecretData.class)
+				.withSpecifications(TicketSpec.newDefaultBuilder().setHashLength(24).build());
+		TicketFactory<MySecretOrigin, MySecretData> factory = config.newFactory(new byte[] {1});
+		TicketFormat base64 = new TicketFormat(false, 0, '.', false, TicketAlphabet.BASE64_URL);
+		TicketFormat base58 = new TicketFormat(false, 6, '-', true, TicketAlphabet.BASE58);
+		TicketMachine<MySecretOrigin, MySecretData> machine = factory.machineForOriginValues(432L, 24380L);
+		for (int i = 0; i < 100; i++) {
+			factory.setFormat(TicketFormat.DEFAULT);
+			Ticket<MySecretOrigin, MySecretData> ticket = machine.ticketDataValues(80L, (long) i);
+			String str = ticket.toString();
+			for (TicketFormat format : new TicketFormat[] { base64, base58 }) {
+				factory.setFormat(format);
+				Ticket<MySecretOrigin, MySecretData> other = machine.ticketDataValues(80L, (long) i);
+				String otherStr = other.toString();
+				assertTrue(otherStr.replace("-", "").replace("l", "").length() < str.replace("-", "").replace("z", "").length());
+				// tickets decode irrespective of the factory's format
+				factory.setFormat(TicketFormat.DEFAULT);
+				assertTrue(factory.isValid(otherStr));
+				Ticket<MySecretOrigin, MySecretData> decoded = factory.decodeTicket(otherStr);
+				assertEquals(other, decoded);
+				assertEquals(otherStr, decoded.toString());
+				assertEquals((long) i, decoded.getData().getSecret());
+				// the same ticket may be written in any alphabet
+				Ticket<MySecretOrigin, MySecretData> reformatted = factory.decodeTicket(CharBuffer.wrap(otherStr));
+				assertEquals(other, reformatted);
+				assertEquals(other, factory.decodeTicket(reformatted.toString()));
+				factory.setFormat(format);
+				assertEquals(ticket, factory.decodeTicket(CharBuffer.wrap(str)));
+			}
+		}
+	}
+
+	public void testLazyDecoding() {
+		TicketConfig<MySecretOrigin, MySecretData> config = TicketConfig.getDefault()
+				.withOriginType(MySecretOrigin.class)
+				.withDataType(MySecretData.class)
+				.withSpecifications(TicketSpec.newDefaultBuilder().setHashLength(32).build());
+
+		TicketFactory<MySecretOrigin, MySecretData> factory = config.newFactory(new byte[] {1});
+		Ticket<MySecretOrigin, MySecretData> ticket = factory.machineForOriginValues(432L, 24380L).ticketDataValues(80L, 1000L);
+		String str = ticket.toString();
+
+		Ticket<MySecretOrigin, MySecretData> lazy = factory.decodeTicketLazily(str);
+		assertEquals(ticket, lazy);
+		assertEquals(ticket.getTimestamp(), lazy.getTimestamp());
+		assertEquals(ticket.getSequenceNumber(), lazy.getSequenceNumber());
+		assertEquals(str, lazy.toString());
+		assertEquals(24380L, lazy.getOrigin().getSecret());
+		assertEquals(432L, lazy.getOrigin().getOpen());
+		assertEquals(1000L, lazy.getData().getSecret());
+		assertEquals(80L, lazy.getData().getOpen());
+		assertSame(lazy.getData(), lazy.getData());
+
+		// the hash is verified eagerly
+		char[] chars = str.toCharArray();
+		int i = chars.length - 2;
+		chars[i] = chars[i] == 'a' ? 'b' : 'a';
+		try {
+			factory.decodeTicketLazily(new String(chars));
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+	}
+
+	public void testLazyCaching() {
+		TicketConfig<MySecretOrigin, MySecretData> config = TicketConfig.getDefault()
+				.withOriginType(MySecretOrigin.class)
+				.withDataType(MySecretData.class)
+				.withSpecifications();
+		TicketMachine<MySecretOrigin, MySecretData> machine = config.newFactory(new byte[] {1}).machineForOriginValues(432L, 24380L);
+		TicketFactory<MySecretOrigin, MySecretData> checking = config.newFactory(new byte[] {2});
+		TicketFactory<MySecretOrigin, MySecretData> caching = config.newFactory(new byte[] {2});
+		caching.setPolicy(new CachePolicy(0L));
+
+		// find an unhashed ticket whose secret fields cannot be decoded with the wrong secret
+		String str = null;
+		for (long i = 0; i < 1000 && str == null; i++) {
+			String candidate = machine.ticketDataValues(80L, i).toString();
+			try {
+				checking.decodeTicket(candidate);
+			} catch (TicketException e) {
+				str = candidate;
+			}
+		}
+		assertNotNull(str);
+
+		// a lazy decode succeeds and is cached
+		Ticket<MySecretOrigin, MySecretData> lazy = caching.decodeTicketLazily(str);
+		assertEquals(1, caching.getTicketCacheStats().getSize());
+		// but an eager decode must still fail
+		try {
+			caching.decodeTicket(str);
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+		try {
+			lazy.getData();
+			fail();
+		} catch (TicketException e) {
+			/* expected */
+		}
+		assertSame(lazy, caching.decodeTicketLazily(str));
+	}
+
+	public void testIsValid() {
+		TicketConfig<MySecretOrigin, MySecretData> config = TicketConfig.getDefault()
+				.withOriginType(MySecretOrigin.class)
+				.withDataType(MySecretData.class)
+				.withSpecifications(TicketSpec.newDefaultBuilder().setHashLength(32).build());
+		TicketFactory<MySecretOrigin, MySecretData> factory = config.newFactory(new byte[] {1});
+		TicketMachine<MySecretOrigin, MySecretData> machine = factory.machineForOriginValues(432L, 24380L);
+		Random random = new Random(0L);
+		for (int i = 0; i < 200; i++) {
+			String str = machine.ticketDataValues((long) i, random.nextLong()).toString();
+			assertTrue(factory.isValid(str));
+			assertTrue(factory.isValid(new StringBuilder(str)));
+			// validity must agree with decoding for corrupted tickets
+			char[] chars = str.toCharArray();
+			chars[random.nextInt(chars.length)] = "abcdefghijkmnpqrstuvwxyz23456789-".charAt(random.nextInt(33));
+			String corrupted = new String(chars);
+			boolean decodable;
+			try {
+				factory.decodeTicket(corrupted);
+				decodable = true;
+			} catch (TicketException e) {
+				decodable = false;
+			}
+			assertEquals(decodable, factory.isValid(corrupted));
+		}
+		assertFalse(factory.isValid(""));
+		assertFalse(factory.isValid("!"));
+		assertFalse(factory.isValid("aaaa"));
+	}
+
+	public void testDecodeSources() {
+		TicketFactory<Void, SessionData> factory = TicketConfig.getDefault()
+				.withDataType(SessionData.class)
+				.newFactory();
+		Ticket<Void, SessionData> ticket = factory.machine().ticketDataValues(23984L);
+		String str = ticket.toString();
+		int length = str.length();
+
+		Ticket<Void, SessionData> decoded = factory.decodeTicket(new StringBuilder(str.toUpperCase()));
+		assertEquals(ticket, decoded);
+		assertEquals(str, decoded.toString());
+		assertEquals(23984L, decoded.getData().getSessionId());
+
+		char[] chars = ("xx" + str + "yy").toCharArray();
+		assertEquals(ticket, factory.decodeTicket(chars, 2, length));
+		try {
+			factory.decodeTicket(chars, 5, chars.length);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+
+		byte[] bytes = ("xx" + str + "yy").getBytes(Charset.forName("ASCII"));
+		ByteBuffer heap = ByteBuffer.wrap(bytes);
+		assertEquals(ticket, factory.decodeTicket(heap, 2, length));
+		assertEquals(0, heap.position());
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes);
+		assertEquals(ticket, factory.decodeTicket(direct, 2, length));
+		assertEquals(str, factory.decodeTicket(direct, 2, length).toString());
+	}
+
+	public void testBulkDecode() {
+		TicketFactory<Void, SessionData> factory = TicketConfig.getDefault()
+				.withDataType(SessionData.class)
+				.newFactory();
+		List<String> strs = new ArrayList<String>();
+		for (Ticket<Void, SessionData> ticket : factory.machine().tickets(1000)) {
+			strs.add(ticket.toString());
+		}
+		strs.set(10, null);
+		strs.set(20, "");
+		strs.set(30, "!!!");
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<TicketResult<Void, SessionData>> results = factory.decodeTickets(strs, pool);
+			assertEquals(strs.size(), results.size());
+			for (int i = 0; i < results.size(); i++) {
+				TicketResult<Void, SessionData> result = results.get(i);
+				assertEquals(strs.get(i), result.getString());
+				if (i == 10 || i == 20 || i == 30) {
+					assertFalse(result.isValid());
+					assertNotNull(result.getException());
+				} else {
+					assertTrue(result.isValid());
+					assertEquals(factory.decodeTicket(strs.get(i)), result.getTicket());
+				}
+			}
+			Iterator<TicketResult<Void, SessionData>> it = factory.decodeTickets(strs.iterator(), pool);
+			for (TicketResult<Void, SessionData> result : results) {
+				assertTrue(it.hasNext());
+				TicketResult<Void, SessionData> next = it.next();
+				assertEquals(result.getString(), next.getString());
+				assertEquals(result.getTicket(), next.getTicket());
+			}
+			assertFalse(it.hasNext());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	public static class TestSequences implements TicketSequences<Void> {
 		private Map<String, TestSequence> sequences = new HashMap<String, TicketFactoryTest.TestSequence>();
 		@Override
@@ -454,6 +1128,100 @@ public class TicketFactoryTest extends TestCase {
 
 	}
 
+	static class RangeSequence implements TicketRangeSequence {
+
+		int reservations = 0;
+		private long number = 0L;
+
+		@Override
+		public long nextSequenceNumber(long timestamp) throws TicketException {
+			return nextSequenceNumbers(timestamp, 1);
+		}
+
+		@Override
+		public synchronized long nextSequenceNumbers(long timestamp, int count) throws TicketException {
+			reservations ++;
+			long first = number;
+			number += count;
+			return first;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class BlockPolicy extends DefaultTicketPolicy {
+
+		@Override
+		public int getSequenceBlockSize() {
+			return 10;
+		}
+
+	}
+
+	public void testSequenceRanges() {
+		TicketSpec spec = TicketSpec.newDefaultBuilder().setGranularity(Granularity.HOUR).build();
+		TicketConfig<Void, Void> config = TicketConfig.getDefault().withSpecifications(spec);
+		final RangeSequence sequence = new RangeSequence();
+		TicketFactory<Void, Void> factory = config.newFactory(new TicketSequences<Void>() {
+			@Override
+			public TicketSequence getSequence(TicketBasis<Void> origin) {
+				return sequence;
+			}
+		});
+		TicketMachine<Void, Void> machine = factory.machine();
+		Set<Long> numbers = new HashSet<Long>();
+
+		// numbers are reserved individually by default
+		for (int i = 0; i < 5; i++) {
+			assertTrue(numbers.add(machine.ticket().getSequenceNumber()));
+		}
+		assertEquals(5, sequence.reservations);
+
+		// and in blocks when the policy permits
+		final AtomicInteger untimed = new AtomicInteger();
+		factory.setListener(new TicketListener() {
+			@Override
+			public void ticketIssued(TicketBasis<?> basis, long sequenceNanos, long encodingNanos, long hashingNanos, long formattingNanos) {
+				if (sequenceNanos == 0L) untimed.incrementAndGet();
+			}
+			@Override
+			public void ticketDecoded(int specNumber) { }
+			@Override
+			public void ticketRejected(TicketException.Reason reason) { }
+		});
+		factory.setPolicy(new BlockPolicy());
+		for (int i = 0; i < 25; i++) {
+			assertTrue(numbers.add(machine.ticket().getSequenceNumber()));
+		}
+		assertEquals(8, sequence.reservations);
+		// only tickets that reserve numbers report the time taken
+		assertTrue(untimed.get() >= 22);
+
+		// batches reserve numbers for each timestamp they obtain
+		untimed.set(0);
+		for (Ticket<Void, Void> ticket : machine.tickets(300)) {
+			assertTrue(numbers.add(ticket.getSequenceNumber()));
+		}
+		assertEquals(10, sequence.reservations);
+		assertTrue(untimed.get() >= 298);
+	}
+
+	public void testDefaultSequence() {
+		TicketRangeSequence sequence = new TicketFactory.Sequence();
+		assertEquals(0L, sequence.nextSequenceNumber(10L));
+		assertEquals(1L, sequence.nextSequenceNumber(10L));
+		assertEquals(2L, sequence.nextSequenceNumbers(10L, 5));
+		assertEquals(7L, sequence.nextSequenceNumber(10L));
+		// numbering restarts with each new timestamp
+		assertEquals(0L, sequence.nextSequenceNumber(11L));
+		assertEquals(1L, sequence.nextSequenceNumber(11L));
+		assertEquals(0L, sequence.nextSequenceNumber(20L));
+		// but not when the clock regresses
+		assertEquals(8L, sequence.nextSequenceNumber(10L));
+		assertEquals(9L, sequence.nextSequenceNumber(11L));
+		assertEquals(1L, sequence.nextSequenceNumber(20L));
+	}
+
 	public void testSequenceContinuity() {
 		TicketSpec spec = TicketSpec.newDefaultBuilder().setGranularity(Granularity.HOUR).build();
 		TicketConfig<Void, Void> config = TicketConfig.getDefault().withSpecifications(spec);
@@ -21,9 +21,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
+import com.tomgibara.bits.BitReader;
+import com.tomgibara.bits.BitVector;
+import com.tomgibara.bits.BitWriter;
+
 public class TicketFormatTest extends TestCase {
 
 	public void testEquals() {
@@ -45,6 +50,138 @@ public class TicketFormatTest extends TestCase {
 		assertFalse(f6.equals(f2));
 	}
 
+	public void testEncoding() {
+		Random random = new Random(0L);
+		boolean[] pads = { true, false, false, true, true };
+		TicketFormat[] formats = {
+				TicketFormat.DEFAULT,
+				new TicketFormat(true, 0, '-', pads[1]),
+				new TicketFormat(false, 3, '.', pads[2]),
+				new TicketFormat(true, 8, '-', pads[3]),
+				new TicketFormat(false, 11, '_', pads[4]),
+		};
+		for (int i = 0; i < 1000; i++) {
+			BitVector bits = randomBits(random, 5 * (1 + random.nextInt(60)));
+			for (int j = 0; j < formats.length; j++) {
+				TicketFormat format = formats[j];
+				String str = format.encode(bits, 1000);
+				assertEquals(simpleEncode(format, pads[j], bits), str);
+				assertEquals(bits, format.decode(str, 1000));
+			}
+		}
+	}
+
+	public void testGroupedEncoding() {
+		// groups shorter than a 40 bit chunk, as in the default format, are split from whole chunks
+		Random random = new Random(0L);
+		char[] buffer = new char[256];
+		for (int groupLength = 1; groupLength <= 10; groupLength++) {
+			for (boolean padGroups : new boolean[] { false, true }) {
+				TicketFormat format = new TicketFormat(false, groupLength, '-', padGroups);
+				for (int i = 0; i < 100; i++) {
+					BitVector bits = randomBits(random, 5 * (1 + random.nextInt(40)));
+					String expected = simpleEncode(format, padGroups, bits);
+					assertEquals(expected, format.encode(bits, 1000));
+					assertEquals(expected, format.encode(bits, 1000, buffer));
+				}
+			}
+		}
+		assertEquals("00000-00000-00000-0zzzz", TicketFormat.DEFAULT.encode(new BitVector(80), 1000));
+	}
+
+	public void testDecoding() {
+		TicketFormat format = TicketFormat.DEFAULT;
+		BitVector bits = format.decode("0123456789abcdef", 100);
+		assertEquals(80, bits.size());
+		// case and separators are irrelevant
+		assertEquals(bits, format.decode("01234-56789.ABCDEF", 100));
+		assertEquals(bits, new TicketFormat(true, 4, '.', false).decode("0123-4567-89ab-cdef", 100));
+		try {
+			format.decode("01234\n56789", 100);
+			fail();
+		} catch (TicketException e) {
+			// expected
+		}
+		try {
+			format.decode("0123456789abcdef", 15);
+			fail();
+		} catch (TicketException e) {
+			// expected
+		}
+	}
+
+	public void testAlphabets() {
+		Random random = new Random(0L);
+		TicketFormat[] formats = {
+				new TicketFormat(false, 0, '.', false, TicketAlphabet.BASE64_URL),
+				new TicketFormat(false, 4, '.', true, TicketAlphabet.BASE64_URL),
+				new TicketFormat(false, 0, '-', false, TicketAlphabet.BASE58),
+				new TicketFormat(false, 5, '-', true, TicketAlphabet.BASE58),
+		};
+		for (int i = 0; i < 1000; i++) {
+			int size = 1 + random.nextInt(300);
+			BitVector bits = randomBits(random, size);
+			for (TicketFormat format : formats) {
+				TicketAlphabet alphabet = format.getAlphabet();
+				String str = format.encode(bits, 1000);
+				assertEquals(alphabet, TicketAlphabet.of(str));
+				BitVector decoded = format.decode(str, 1000);
+				// decoding with a base 32 format is unaffected
+				assertEquals(decoded, TicketFormat.DEFAULT.decode(str, 1000));
+				int padding = alphabet.padding(size);
+				assertTrue(padding < 6);
+				assertEquals(size + padding, decoded.size());
+				assertEquals(bits, decoded.rangeView(padding, decoded.size()));
+				assertEquals(new BitVector(padding), decoded.rangeView(0, padding));
+			}
+		}
+		// 41 bits are 7 base 58 characters, not every combination of which is valid
+		assertEquals("I1111111", formats[2].encode(new BitVector(41), 100));
+		assertNotNull(formats[2].decodeOrNull("I" + "Qgh8sC7", 100));
+		assertNull(formats[2].decodeOrNull("I" + "zzzzzzz", 100));
+		try {
+			new TicketFormat(true, 5, '.', true, TicketAlphabet.BASE58);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+		try {
+			new TicketFormat(false, 5, '-', true, TicketAlphabet.BASE64_URL);
+			fail();
+		} catch (IllegalArgumentException e) {
+			/* expected */
+		}
+	}
+
+	private static BitVector randomBits(Random random, int size) {
+		BitVector bits = new BitVector(size);
+		BitWriter writer = bits.openWriter();
+		for (int i = 0; i < size; i++) {
+			writer.writeBoolean(random.nextBoolean());
+		}
+		return bits;
+	}
+
+	// a straightforward encoding for comparison
+	private static String simpleEncode(TicketFormat format, boolean padGroups, BitVector bits) {
+		String chars = format.isUpperCase() ? "0123456789ABCDEFGHJKMNPQRSTUVWXY" : "0123456789abcdefghjkmnpqrstuvwxy";
+		int groupLength = format.getCharGroupLength();
+		int count = bits.size() / 5;
+		BitReader reader = bits.openReader();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && groupLength > 0 && i % groupLength == 0) sb.append(format.getSeparatorChar());
+			sb.append(chars.charAt(reader.read(5)));
+		}
+		if (groupLength > 0 && padGroups) {
+			while (count % groupLength != 0) {
+				sb.append('z');
+				count++;
+			}
+		}
+		return sb.toString();
+	}
+
 	public void testSerialization() throws IOException, ClassNotFoundException {
 		TicketFormat tf = new TicketFormat(true, 6, '.', false);
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Tom Gibara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.tomgibara.ticket;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TicketScannerTest extends TestCase {
+
+	public void testScan() throws IOException {
+		TicketSpec oldSpec = TicketSpec.newDefaultBuilder().setHashLength(16).build();
+		TicketSpec newSpec = TicketSpec.newDefaultBuilder().setHashLength(32).build();
+		TicketFactory<Void, Void> oldFactory = TicketConfig.getDefault().withSpecifications(oldSpec).newFactory();
+		TicketFactory<Void, Void> factory = TicketConfig.getDefault().withSpecifications(oldSpec, newSpec).newFactory();
+
+		final List<Ticket<Void, Void>> tickets = new ArrayList<Ticket<Void,Void>>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			Ticket<Void, Void> ticket = (i % 4 == 0 ? oldFactory : factory).machine().ticket();
+			tickets.add(ticket);
+			sb.append(ticket).append(i % 3 == 0 ? "\r\n" : "\n");
+			if (i % 5 == 0) sb.append("\n");
+			if (i % 7 == 0) sb.append("!!!\n");
+		}
+		sb.append(tickets.get(0)); // unterminated final entry
+
+		Path path = Files.createTempFile("tickets", ".txt");
+		try {
+			Files.write(path, sb.toString().getBytes(Charset.forName("ASCII")));
+			for (int regionSize : new int[] {1, 7, 16, 1 << 30}) {
+				TicketScanner<Void, Void> scanner = new TicketScanner<Void, Void>(factory, (byte) '\n', regionSize);
+
+				final List<Ticket<Void, Void>> decoded = new ArrayList<Ticket<Void,Void>>();
+				final List<Long> invalid = new ArrayList<Long>();
+				TicketScanStats stats = scanner.scan(path, new TicketScanner.Listener<Void, Void>() {
+					@Override
+					public void ticketDecoded(long position, Ticket<Void, Void> ticket) {
+						decoded.add(ticket);
+					}
+					@Override
+					public void ticketInvalid(long position, TicketException e) {
+						invalid.add(position);
+					}
+				});
+				if (regionSize > 16) {
+					// small regions cannot accommodate a ticket
+					assertEquals(tickets, decoded.subList(0, tickets.size()));
+					assertEquals(21, stats.getValidCount());
+					assertEquals(3, stats.getInvalidCount());
+					assertEquals(6, stats.getValidCount(0));
+					assertEquals(15, stats.getValidCount(1));
+					assertEquals(sb.indexOf("!!!"), invalid.get(0).intValue());
+				}
+				assertEquals(stats.getValidCount() + stats.getInvalidCount(), decoded.size() + invalid.size());
+				// every non-empty line is counted once, however long
+				assertEquals(24, stats.getValidCount() + stats.getInvalidCount());
+
+				TicketScanStats validated = scanner.validate(path);
+				assertEquals(stats.getValidCount(), validated.getValidCount());
+				assertEquals(stats.getInvalidCount(), validated.getInvalidCount());
+				assertEquals(stats.getValidCount(0), validated.getValidCount(0));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+}